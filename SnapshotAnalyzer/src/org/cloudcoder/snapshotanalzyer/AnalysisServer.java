@@ -0,0 +1,391 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running analysis daemon, so that tools needing the features
+ * of a snapshot don't pay for JVM start-up and JIT warm-up on every
+ * request.  Listens on a loopback port, and accepts requests of the form
+ *
+ * <pre>
+ * ANALYZE name length
+ * (length bytes of snapshot text)
+ * </pre>
+ *
+ * to which it responds with a single line, either
+ * <code>OK name value...</code> (the standard features, in schema order),
+ * <code>ERROR name message</code> if the snapshot can't be parsed (or
+ * the server is closed before it is processed), or
+ * <code>BUSY name</code> if the request queue is full, in which case
+ * the client should retry later.  A <code>SCHEMA</code> request returns
+ * <code>SCHEMA name...</code> (the feature names).
+ *
+ * A client may send a batch of requests without waiting for responses:
+ * the responses are returned in request order once the batch has been
+ * processed.  Requests from all clients go into one bounded queue, from
+ * which worker threads take them in batches.  Each worker keeps its own
+ * feature extraction engine and feature vector for the life of the
+ * server.
+ */
+public class AnalysisServer implements Closeable {
+	public static final int DEFAULT_PORT = 7346;
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	public static final int DEFAULT_MAX_BATCH = 32;
+	public static final int MAX_SNAPSHOT_SIZE = 1 << 24;
+
+	// How long to wait for room in the queue before responding BUSY
+	private static final long ENQUEUE_TIMEOUT_MILLIS = 100L;
+
+	private static final int WARM_UP_ITERATIONS = 2000;
+	private static final String WARM_UP_PROGRAM =
+			"#include <stdio.h>\n"
+			+ "int f(int n) { int i, sum = 0; for (i = 0; i < n; i++) { if (i % 2 == 0) { sum += i; } else { sum -= 1; } } return sum; }\n"
+			+ "int main(void) { int x = 0; while (x < 10) { x++; } do { x--; } while (x > 0); printf(\"%d\\n\", f(x)); return 0; }\n";
+
+	// A snapshot to analyze, and (once done) the response line
+	private static class Request {
+		final String name;
+		final byte[] data;
+		final CountDownLatch done;
+		volatile String response;
+
+		Request(String name, byte[] data) {
+			this.name = name;
+			this.data = data;
+			this.done = new CountDownLatch(1);
+		}
+
+		// Set the response, unless the request already has one
+		synchronized void respond(String response) {
+			if (done.getCount() > 0) {
+				this.response = response;
+				done.countDown();
+			}
+		}
+	}
+
+	private final ServerSocket serverSocket;
+	private final BlockingQueue<Request> queue;
+	private final int numWorkers;
+	private final int maxBatch;
+	private final String schemaLine;
+	private final List<Thread> threads;
+	private volatile boolean closed;
+
+	public AnalysisServer(int port) throws IOException {
+		this(port, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param port          the port to listen on (0 to choose a free port)
+	 * @param numWorkers    number of worker threads
+	 * @param queueCapacity maximum number of queued requests
+	 * @param maxBatch      maximum number of requests taken by a worker at once
+	 * @throws IOException
+	 */
+	public AnalysisServer(int port, int numWorkers, int queueCapacity, int maxBatch) throws IOException {
+		if (numWorkers < 1 || queueCapacity < 1 || maxBatch < 1) {
+			throw new IllegalArgumentException("numWorkers, queueCapacity and maxBatch must be at least 1");
+		}
+		this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.numWorkers = numWorkers;
+		this.maxBatch = maxBatch;
+		StringBuilder buf = new StringBuilder("SCHEMA");
+		FeatureSchema schema = FeatureExtractionEngine.createStandard().getSchema();
+		for (int i = 0; i < schema.getNumFeatures(); i++) {
+			buf.append(' ').append(schema.getName(i));
+		}
+		this.schemaLine = buf.toString();
+		this.threads = new ArrayList<>();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the number of requests waiting to be processed
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Start the worker threads and begin accepting connections.
+	 * Each worker is warmed up before the server accepts its first
+	 * connection, so that early requests run compiled code.
+	 */
+	public synchronized void start() {
+		CountDownLatch warm = new CountDownLatch(numWorkers);
+		for (int i = 0; i < numWorkers; i++) {
+			startThread(() -> {
+				Worker worker = new Worker();
+				worker.warmUp();
+				warm.countDown();
+				worker.run();
+			}, "analysis-worker-" + i);
+		}
+		startThread(() -> {
+			try {
+				warm.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			acceptConnections();
+		}, "analysis-acceptor");
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		respondToQueued();
+	}
+
+	private void respondToQueued() {
+		Request request;
+		while ((request = queue.poll()) != null) {
+			request.respond("ERROR " + request.name + " Server is closed");
+		}
+	}
+
+	private void startThread(Runnable r, String name) {
+		Thread thread = new Thread(r, name);
+		thread.setDaemon(true);
+		thread.start();
+		threads.add(thread);
+	}
+
+	private void acceptConnections() {
+		int count = 0;
+		while (!closed) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				// Server socket was closed
+				break;
+			}
+			Thread thread = new Thread(() -> handleConnection(socket), "analysis-connection-" + (count++));
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void handleConnection(Socket socket) {
+		try (Socket s = socket) {
+			s.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			OutputStream out = new BufferedOutputStream(s.getOutputStream());
+			ArrayDeque<Request> pending = new ArrayDeque<>();
+			String line;
+			while ((line = readLine(in)) != null) {
+				String[] words = line.trim().split("\\s+");
+				if (words[0].equals("ANALYZE") && words.length == 3) {
+					int length = Integer.parseInt(words[2]);
+					if (length < 0 || length > MAX_SNAPSHOT_SIZE) {
+						throw new IOException("Invalid snapshot length " + length);
+					}
+					byte[] data = new byte[length];
+					readFully(in, data);
+					Request request = new Request(words[1], data);
+					if (!queue.offer(request, ENQUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+						request.respond("BUSY " + request.name);
+					}
+					pending.add(request);
+				} else if (words[0].equals("SCHEMA")) {
+					Request request = new Request("", null);
+					request.respond(schemaLine);
+					pending.add(request);
+				} else {
+					Request request = new Request("", null);
+					request.respond("ERROR - Invalid request");
+					pending.add(request);
+				}
+
+				// Respond once the client has sent all of the requests in its batch
+				if (in.available() == 0) {
+					while (!pending.isEmpty()) {
+						Request request = pending.remove();
+						while (!request.done.await(ENQUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+							if (closed) {
+								// Queued after close() answered the queued requests
+								respondToQueued();
+							}
+						}
+						out.write(request.response.getBytes(StandardCharsets.UTF_8));
+						out.write('\n');
+					}
+					out.flush();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Connection is dropped
+		} catch (InterruptedException e) {
+			// Server is being closed
+		}
+	}
+
+	private class Worker {
+		private final FeatureExtractionEngine engine;
+		private final FeatureVector features;
+		private final List<Request> batch;
+		private final StringBuilder buf;
+
+		Worker() {
+			this.engine = FeatureExtractionEngine.createStandard();
+			this.features = engine.createFeatureVector();
+			this.batch = new ArrayList<>(maxBatch);
+			this.buf = new StringBuilder();
+		}
+
+		void warmUp() {
+			for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+				try {
+					analyze(new StringReader(WARM_UP_PROGRAM));
+				} catch (IOException | LexerException | ParserException e) {
+					throw new IllegalStateException("Warm-up program could not be parsed", e);
+				}
+			}
+		}
+
+		void run() {
+			try {
+				while (true) {
+					batch.add(queue.take());
+					queue.drainTo(batch, maxBatch - 1);
+					for (Request request : batch) {
+						String response = null;
+						try {
+							response = process(request);
+						} catch (StackOverflowError e) {
+							// The parser is recursive: the snapshot is nested too deeply
+							response = "ERROR " + request.name + " Snapshot is nested too deeply";
+						} finally {
+							request.respond(response != null ? response : "ERROR " + request.name + " Internal error");
+						}
+					}
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				// Server is being closed
+			} finally {
+				// If the worker is stopping because of an Error, the
+				// rest of its batch must still be answered
+				for (Request request : batch) {
+					request.respond("ERROR " + request.name + " Internal error");
+				}
+				batch.clear();
+			}
+		}
+
+		private String process(Request request) {
+			try (Reader r = new StringReader(new String(request.data, StandardCharsets.UTF_8))) {
+				analyze(r);
+			} catch (IOException | LexerException | ParserException e) {
+				String message = String.valueOf(e.getMessage()).replace('\n', ' ');
+				return "ERROR " + request.name + " " + message;
+			} catch (RuntimeException e) {
+				return "ERROR " + request.name + " " + e;
+			}
+			buf.setLength(0);
+			buf.append("OK ").append(request.name);
+			for (int value : features.getValues()) {
+				buf.append(' ').append(value);
+			}
+			return buf.toString();
+		}
+
+		private void analyze(Reader r) throws IOException, LexerException {
+			TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+			Node unit = new CParser(seq).parse();
+			engine.extract(seq, unit, features);
+		}
+	}
+
+	// Read a line terminated by '\n', or return null at EOF
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c < 0) {
+				return line.size() > 0 ? line.toString("UTF-8") : null;
+			}
+			if (line.size() > 4096) {
+				throw new IOException("Request line too long");
+			}
+			line.write(c);
+		}
+		return line.toString("UTF-8");
+	}
+
+	private static void readFully(InputStream in, byte[] data) throws IOException {
+		int off = 0;
+		while (off < data.length) {
+			int n = in.read(data, off, data.length - off);
+			if (n < 0) {
+				throw new EOFException("Unexpected EOF reading snapshot");
+			}
+			off += n;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length >= 2 && args[0].equals("client")) {
+			// Send the named files as one batch, and print the responses
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]))) {
+				OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+				for (int i = 2; i < args.length; i++) {
+					byte[] data = Files.readAllBytes(new File(args[i]).toPath());
+					out.write(("ANALYZE " + new File(args[i]).getName() + " " + data.length + "\n").getBytes(StandardCharsets.UTF_8));
+					out.write(data);
+				}
+				out.flush();
+				socket.shutdownOutput();
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				String line;
+				while ((line = readLine(in)) != null) {
+					System.out.println(line);
+				}
+			}
+		} else if (args.length <= 1) {
+			int port = args.length == 1 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+			AnalysisServer server = new AnalysisServer(port);
+			server.start();
+			System.out.println("Listening on port " + server.getPort());
+			Thread.currentThread().join();
+		} else {
+			System.err.println("Usage: AnalysisServer [port]");
+			System.err.println("       AnalysisServer client <port> <file>...");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Snapshot source which streams the entries of a zip, tar, or
+ * tar.gz archive, without extracting them to disk.
+ * Decompression runs on the prefetching thread, so it overlaps
+ * with lexing and parsing.
+ */
+public class ArchiveSnapshotSource extends PrefetchingSnapshotSource {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private enum Format {
+		ZIP,
+		TAR,
+		TAR_GZ,
+	}
+
+	private final Predicate<String> entryFilter;
+	private final InputStream in;
+	private final ZipInputStream zipIn;
+	private final TarReader tarIn;
+
+	public ArchiveSnapshotSource(File archive) throws IOException {
+		this(archive, name -> true, DEFAULT_PREFETCH);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param archive     the archive file: must end in .zip, .tar, .tar.gz, or .tgz
+	 * @param entryFilter predicate selecting which entries (by name) are snapshots
+	 * @param prefetch    maximum number of entries to decompress ahead of the consumer
+	 * @throws IOException
+	 */
+	public ArchiveSnapshotSource(File archive, Predicate<String> entryFilter, int prefetch) throws IOException {
+		super("Decompress " + archive.getName(), prefetch);
+		this.entryFilter = entryFilter;
+
+		Format format = getFormat(archive.getName());
+		InputStream fileIn = new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE);
+		switch (format) {
+		case ZIP:
+			this.in = this.zipIn = new ZipInputStream(fileIn, StandardCharsets.UTF_8);
+			this.tarIn = null;
+			break;
+		case TAR_GZ:
+			try {
+				this.in = new GZIPInputStream(fileIn, BUFFER_SIZE);
+			} catch (IOException e) {
+				// E.g., not actually gzip-compressed: reads the header
+				try {
+					fileIn.close();
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+				throw e;
+			}
+			this.zipIn = null;
+			this.tarIn = new TarReader(in);
+			break;
+		case TAR:
+			this.in = fileIn;
+			this.zipIn = null;
+			this.tarIn = new TarReader(in);
+			break;
+		default:
+			fileIn.close();
+			throw new IllegalStateException("Should not happen");
+		}
+	}
+
+	/**
+	 * @return true if the file name has one of the archive suffixes this class reads
+	 */
+	public static boolean isArchive(String fileName) {
+		String lc = fileName.toLowerCase();
+		return lc.endsWith(".zip") || lc.endsWith(".tar") || lc.endsWith(".tar.gz") || lc.endsWith(".tgz");
+	}
+
+	private static Format getFormat(String fileName) {
+		String lc = fileName.toLowerCase();
+		if (lc.endsWith(".zip")) {
+			return Format.ZIP;
+		} else if (lc.endsWith(".tar.gz") || lc.endsWith(".tgz")) {
+			return Format.TAR_GZ;
+		} else if (lc.endsWith(".tar")) {
+			return Format.TAR;
+		} else {
+			throw new IllegalArgumentException("Unknown archive format: " + fileName);
+		}
+	}
+
+	@Override
+	protected boolean fill(Snapshot snapshot) throws IOException {
+		if (zipIn != null) {
+			ZipEntry entry;
+			while ((entry = zipIn.getNextEntry()) != null) {
+				if (!entry.isDirectory() && entryFilter.test(entry.getName())) {
+					snapshot.setName(entry.getName());
+					snapshot.readFrom(zipIn, entry.getSize());
+					return true;
+				}
+			}
+			return false;
+		} else {
+			while (tarIn.nextEntry()) {
+				if (tarIn.isFile() && entryFilter.test(tarIn.getName())) {
+					snapshot.setName(tarIn.getName());
+					snapshot.readFrom(in, tarIn.getSize());
+					tarIn.setConsumed();
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	@Override
+	protected void closeSource() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Minimal reader for (ustar and GNU) tar headers.
+	 * Entry data is read directly from the underlying stream.
+	 */
+	private static class TarReader {
+		private static final int BLOCK_SIZE = 512;
+
+		private final InputStream in;
+		private final byte[] header;
+		private String name;
+		private long size;
+		private byte type;
+		private long remaining; // bytes of data + padding not yet consumed
+
+		public TarReader(InputStream in) {
+			this.in = in;
+			this.header = new byte[BLOCK_SIZE];
+		}
+
+		public boolean nextEntry() throws IOException {
+			skip(remaining);
+			String longName = null;
+			while (true) {
+				if (!readHeader()) {
+					return false;
+				}
+				name = (longName != null) ? longName : getHeaderName();
+				size = parseOctal(124, 12);
+				type = header[156];
+				remaining = padded(size);
+				if (type == 'L') {
+					// GNU long name: the data is the name of the following entry
+					byte[] buf = new byte[(int) remaining];
+					readFully(buf);
+					remaining = 0;
+					longName = cString(buf, 0, (int) size);
+				} else {
+					return true;
+				}
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public boolean isFile() {
+			return type == '0' || type == 0;
+		}
+
+		/**
+		 * Called after the entry data has been read directly from the stream.
+		 */
+		public void setConsumed() {
+			remaining -= size;
+		}
+
+		private boolean readHeader() throws IOException {
+			int n = 0;
+			while (n < BLOCK_SIZE) {
+				int count = in.read(header, n, BLOCK_SIZE - n);
+				if (count < 0) {
+					if (n == 0) {
+						return false;
+					}
+					throw new EOFException("Truncated tar header");
+				}
+				n += count;
+			}
+			// An all-zero block marks the end of the archive
+			for (byte b : header) {
+				if (b != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private String getHeaderName() {
+			String name = cString(header, 0, 100);
+			if (header[257] == 'u' && header[258] == 's' && header[345] != 0) {
+				// ustar: prepend the prefix field
+				name = cString(header, 345, 155) + "/" + name;
+			}
+			return name;
+		}
+
+		private long parseOctal(int off, int len) {
+			long value = 0;
+			for (int i = off; i < off + len; i++) {
+				byte b = header[i];
+				if (b >= '0' && b <= '7') {
+					value = (value << 3) + (b - '0');
+				} else if (b == 0 || (b == ' ' && value > 0)) {
+					break;
+				}
+			}
+			return value;
+		}
+
+		private void readFully(byte[] buf) throws IOException {
+			int n = 0;
+			while (n < buf.length) {
+				int count = in.read(buf, n, buf.length - n);
+				if (count < 0) {
+					throw new EOFException("Truncated tar entry");
+				}
+				n += count;
+			}
+		}
+
+		private void skip(long count) throws IOException {
+			while (count > 0) {
+				long n = in.skip(count);
+				if (n <= 0) {
+					if (in.read() < 0) {
+						throw new EOFException("Truncated tar entry");
+					}
+					n = 1;
+				}
+				count -= n;
+			}
+		}
+
+		private static long padded(long size) {
+			return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+		}
+
+		private static String cString(byte[] buf, int off, int len) {
+			int end = off;
+			while (end < off + len && buf[end] != 0) {
+				end++;
+			}
+			return new String(buf, off, end - off, StandardCharsets.UTF_8);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		// Lex and parse every snapshot in each archive named on the command line
+		for (String arg : args) {
+			try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(arg))) {
+				Snapshot snapshot;
+				while ((snapshot = source.readNext()) != null) {
+					try (Reader r = snapshot.createReader()) {
+						List<Token> tokens = LexerUtil.readAll(new CLexer(r));
+						Node unit = new CParser(new TokenSequence(tokens)).parse();
+						System.out.println(snapshot.getName() + ": " + tokens.size() + " tokens, "
+								+ unit.getChildren().size() + " top-level constructs");
+					} catch (LexerException | ParserException e) {
+						System.out.println(snapshot.getName() + ": " + e.getMessage());
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.IOException;
+
+/**
+ * Writes a parse tree as ASCII art, one node per line.
+ */
+public class AsciiTreeWriter extends TreeWriter {
+	public AsciiTreeWriter(Appendable out, TokenSequence seq) {
+		super(out, seq);
+	}
+
+	@Override
+	protected void startNode(Node node, int depth) throws IOException {
+		for (int level = 0; level < depth; level++) {
+			if (level == depth - 1) {
+				out.append("+--");
+			} else {
+				out.append(hasMoreChildren(level) ? "|  " : "   ");
+			}
+		}
+		out.append(node.getNodeType().name());
+		String lexeme = getLexeme(node);
+		if (lexeme != null) {
+			out.append("[\"").append(lexeme).append("\"]");
+		}
+		out.append('\n');
+	}
+
+	@Override
+	protected void endNode(Node node, int depth) {
+	}
+
+	@Override
+	protected void finish() {
+	}
+}
@@ -0,0 +1,93 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Batch analysis: lexes and parses every snapshot from one or more
+ * snapshot sources, extracts the standard features, and writes them
+ * to a columnar feature file (see {@link FeatureColumnWriter}).
+ * Each row has the key columns {@link #KEY_COLUMNS} followed by the features.
+ */
+public class BatchAnalyzer {
+	public static final String[] KEY_COLUMNS = { "row", "submission_id", "timestamp", "parsed" };
+
+	private final FeatureExtractionEngine engine;
+	private final FeatureVector features;
+	private final FeatureColumnWriter writer;
+	private long row;
+	private long errors;
+
+	public BatchAnalyzer(FeatureExtractionEngine engine, FeatureColumnWriter writer) {
+		this.engine = engine;
+		this.features = engine.createFeatureVector();
+		this.writer = writer;
+	}
+
+	/**
+	 * Analyze all of the snapshots from given source.
+	 *
+	 * @param source the snapshot source
+	 * @throws IOException
+	 */
+	public void analyze(ISnapshotSource source) throws IOException {
+		Snapshot snapshot;
+		while ((snapshot = source.readNext()) != null) {
+			boolean parsed;
+			try (Reader r = snapshot.createReader()) {
+				TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+				Node unit = new CParser(seq).parse();
+				engine.extract(seq, unit, features);
+				parsed = true;
+			} catch (LexerException | ParserException e) {
+				features.clear();
+				parsed = false;
+				errors++;
+			}
+
+			writer.set(0, row++);
+			writer.set(1, snapshot.getSubmissionId());
+			writer.set(2, snapshot.getTimestamp());
+			writer.set(3, parsed ? 1 : 0);
+			writer.set(KEY_COLUMNS.length, features);
+			writer.endRow();
+		}
+	}
+
+	public long getNumRows() {
+		return row;
+	}
+
+	public long getNumErrors() {
+		return errors;
+	}
+
+	public static void main(String[] args) throws IOException, SQLException {
+		if (args.length < 2) {
+			System.err.println("Usage: BatchAnalyzer <output file> <archive or JDBC url>...");
+			System.exit(1);
+		}
+		FeatureExtractionEngine engine = FeatureExtractionEngine.createStandard();
+		String[] columnNames = FeatureColumnWriter.getColumnNames(KEY_COLUMNS, engine.getSchema());
+		try (FeatureColumnWriter writer = new FeatureColumnWriter(new File(args[0]), columnNames)) {
+			BatchAnalyzer analyzer = new BatchAnalyzer(engine, writer);
+			for (int i = 1; i < args.length; i++) {
+				if (args[i].startsWith("jdbc:")) {
+					try (Connection conn = DriverManager.getConnection(args[i]);
+							JdbcSnapshotSource source = new JdbcSnapshotSource(conn)) {
+						analyzer.analyze(source);
+					}
+				} else {
+					try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(args[i]))) {
+						analyzer.analyze(source);
+					}
+				}
+			}
+			System.out.println(analyzer.getNumRows() + " snapshots analyzed, " + analyzer.getNumErrors() + " could not be parsed");
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Analyzes a batch (shard) of snapshots in parallel, scheduling by
+ * estimated cost so that a few very large snapshots don't leave one
+ * worker running long after the others have finished.
+ *
+ * The cost of each snapshot is estimated from its length and an
+ * approximate token count (found by a quick scan of the bytes, without
+ * lexing).  Snapshots are dealt to the workers largest first, each to
+ * the worker with the least total cost so far.  Each worker takes its own
+ * snapshots largest first, and when it runs out, steals the smallest
+ * remaining snapshots from the other workers.
+ *
+ * After a batch has run, the snapshots which took much longer than the
+ * median (relative to their estimated cost), and long enough to affect
+ * the batch's wall time, are reported as stragglers.
+ */
+public class BatchScheduler {
+	// Estimated cost of a token relative to a byte
+	private static final int TOKEN_WEIGHT = 8;
+
+	// A snapshot is a straggler if it took this many times longer than
+	// the median time per unit of estimated cost, and took at least this
+	// fraction of the batch's wall time (so it may have delayed the batch)
+	public static final double STRAGGLER_FACTOR = 4.0;
+	public static final double STRAGGLER_MIN_FRACTION = 0.02;
+	public static final int MAX_STRAGGLERS = 20;
+
+	/**
+	 * A snapshot which took an unexpectedly long time to analyze.
+	 */
+	public static class Straggler {
+		private final String name;
+		private final int length;
+		private final int numTokens;
+		private final long nanos;
+
+		Straggler(String name, int length, int numTokens, long nanos) {
+			this.name = name;
+			this.length = length;
+			this.numTokens = numTokens;
+			this.nanos = nanos;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		public int getNumTokens() {
+			return numTokens;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + length + " bytes, " + numTokens + " tokens, "
+					+ TimeUnit.NANOSECONDS.toMillis(nanos) + " ms)";
+		}
+	}
+
+	private static class Item {
+		final Snapshot snapshot;
+		final long cost;
+		int numTokens;
+		long nanos;
+
+		Item(Snapshot snapshot, long cost) {
+			this.snapshot = snapshot;
+			this.cost = cost;
+		}
+	}
+
+	private final int numWorkers;
+	private final ISnapshotHandler handler;
+	private final AtomicLong numErrors;
+	private final AtomicLong numStolen;
+	private final AtomicLong busyNanos;
+	private long wallNanos;
+	private List<Straggler> stragglers;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numWorkers number of worker threads
+	 * @param handler    handler to receive the analyzed snapshots: called
+	 *                   from the worker threads, so must be thread-safe
+	 */
+	public BatchScheduler(int numWorkers, ISnapshotHandler handler) {
+		if (numWorkers < 1) {
+			throw new IllegalArgumentException("numWorkers must be at least 1");
+		}
+		this.numWorkers = numWorkers;
+		this.handler = handler;
+		this.numErrors = new AtomicLong();
+		this.numStolen = new AtomicLong();
+		this.busyNanos = new AtomicLong();
+		this.stragglers = Collections.emptyList();
+	}
+
+	/**
+	 * Estimate the cost of analyzing a snapshot.
+	 *
+	 * @param snapshot the snapshot
+	 * @return the estimated cost (in arbitrary units)
+	 */
+	public static long estimateCost(Snapshot snapshot) {
+		// Count the starts of runs of identifier characters and of
+		// punctuation characters, which approximates the number of tokens
+		byte[] data = snapshot.getData();
+		int len = snapshot.getLength();
+		int tokens = 0;
+		int prevClass = 0;
+		for (int i = 0; i < len; i++) {
+			int b = data[i] & 0xff;
+			int cls;
+			if (b <= ' ') {
+				cls = 0;
+			} else if (Character.isLetterOrDigit(b) || b == '_' || b >= 0x80) {
+				cls = 1;
+			} else {
+				cls = 2;
+			}
+			if (cls != 0 && (cls != prevClass || cls == 2)) {
+				tokens++;
+			}
+			prevClass = cls;
+		}
+		return len + (long) TOKEN_WEIGHT * tokens;
+	}
+
+	/**
+	 * Analyze a batch of snapshots.  Returns when all of them have been
+	 * analyzed.  The snapshots must not be recycled (e.g., by an
+	 * {@link ISnapshotSource}) while the batch is running.
+	 *
+	 * @param batch the snapshots
+	 */
+	public void run(List<Snapshot> batch) {
+		long start = System.nanoTime();
+		numErrors.set(0L);
+		numStolen.set(0L);
+		busyNanos.set(0L);
+
+		// Deal the snapshots largest first, each to the least loaded worker
+		Item[] items = new Item[batch.size()];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = new Item(batch.get(i), estimateCost(batch.get(i)));
+		}
+		Arrays.sort(items, (a, b) -> Long.compare(b.cost, a.cost));
+		List<ConcurrentLinkedDeque<Item>> deques = new ArrayList<>();
+		long[] load = new long[numWorkers];
+		for (int w = 0; w < numWorkers; w++) {
+			deques.add(new ConcurrentLinkedDeque<>());
+		}
+		for (Item item : items) {
+			int min = 0;
+			for (int w = 1; w < numWorkers; w++) {
+				if (load[w] < load[min]) {
+					min = w;
+				}
+			}
+			deques.get(min).addLast(item);
+			load[min] += item.cost;
+		}
+
+		AtomicReference<RuntimeException> error = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int w = 0; w < numWorkers; w++) {
+			final int self = w;
+			Thread thread = new Thread(() -> {
+				try {
+					work(self, deques);
+				} catch (RuntimeException e) {
+					error.compareAndSet(null, e);
+				}
+			}, "batch-worker-" + w);
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted waiting for workers", e);
+			}
+		}
+		wallNanos = System.nanoTime() - start;
+		if (error.get() != null) {
+			throw error.get();
+		}
+		stragglers = findStragglers(items);
+	}
+
+	private void work(int self, List<ConcurrentLinkedDeque<Item>> deques) {
+		FeatureExtractionEngine engine = FeatureExtractionEngine.createStandard();
+		FeatureVector features = engine.createFeatureVector();
+		ConcurrentLinkedDeque<Item> own = deques.get(self);
+		while (true) {
+			Item item = own.pollFirst();
+			if (item == null) {
+				// No new items are ever added, so if there is nothing
+				// to steal, the batch is done
+				for (int i = 1; i < numWorkers && item == null; i++) {
+					item = deques.get((self + i) % numWorkers).pollLast();
+				}
+				if (item == null) {
+					return;
+				}
+				numStolen.incrementAndGet();
+			}
+
+			long start = System.nanoTime();
+			try (Reader r = item.snapshot.createReader()) {
+				TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+				item.numTokens = seq.size();
+				Node unit = new CParser(seq).parse();
+				engine.extract(seq, unit, features);
+				handler.snapshotAnalyzed(item.snapshot, seq, unit, features);
+			} catch (IOException | LexerException | ParserException e) {
+				numErrors.incrementAndGet();
+			}
+			item.nanos = System.nanoTime() - start;
+			busyNanos.addAndGet(item.nanos);
+		}
+	}
+
+	private List<Straggler> findStragglers(Item[] items) {
+		if (items.length == 0) {
+			return Collections.emptyList();
+		}
+		double[] rates = new double[items.length];
+		for (int i = 0; i < items.length; i++) {
+			rates[i] = (double) items[i].nanos / Math.max(items[i].cost, 1L);
+		}
+		double[] sorted = rates.clone();
+		Arrays.sort(sorted);
+		double median = sorted[sorted.length / 2];
+
+		List<Item> slow = new ArrayList<>();
+		for (int i = 0; i < items.length; i++) {
+			if (rates[i] > STRAGGLER_FACTOR * median && items[i].nanos >= STRAGGLER_MIN_FRACTION * wallNanos) {
+				slow.add(items[i]);
+			}
+		}
+		slow.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+		List<Straggler> result = new ArrayList<>();
+		for (Item item : slow.subList(0, Math.min(slow.size(), MAX_STRAGGLERS))) {
+			result.add(new Straggler(item.snapshot.getName(), item.snapshot.getLength(), item.numTokens, item.nanos));
+		}
+		return result;
+	}
+
+	public long getNumErrors() {
+		return numErrors.get();
+	}
+
+	/**
+	 * @return the number of snapshots taken by a worker from another worker's queue
+	 */
+	public long getNumStolen() {
+		return numStolen.get();
+	}
+
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	/**
+	 * @return total time the workers spent analyzing snapshots
+	 */
+	public long getBusyNanos() {
+		return busyNanos.get();
+	}
+
+	/**
+	 * @return busy time divided by (wall time times number of workers):
+	 *         1.0 means that no worker was ever idle
+	 */
+	public double getEfficiency() {
+		return wallNanos > 0 ? (double) busyNanos.get() / ((double) wallNanos * numWorkers) : 0.0;
+	}
+
+	/**
+	 * @return the stragglers of the last batch, slowest first
+	 */
+	public List<Straggler> getStragglers() {
+		return stragglers;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: BatchScheduler <archive>...");
+			System.exit(1);
+		}
+		// Each archive is one shard
+		BatchScheduler scheduler = new BatchScheduler(Runtime.getRuntime().availableProcessors(),
+				(snapshot, seq, unit, features) -> { });
+		for (String arg : args) {
+			List<Snapshot> batch = new ArrayList<>();
+			try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(arg))) {
+				Snapshot snapshot;
+				while ((snapshot = source.readNext()) != null) {
+					Snapshot copy = new Snapshot();
+					copy.setName(snapshot.getName());
+					copy.setSubmissionId(snapshot.getSubmissionId());
+					copy.setTimestamp(snapshot.getTimestamp());
+					copy.setData(snapshot.getData(), 0, snapshot.getLength());
+					batch.add(copy);
+				}
+			}
+			scheduler.run(batch);
+			System.out.println(arg + ": " + batch.size() + " snapshots, " + scheduler.getNumErrors() + " could not be parsed, "
+					+ TimeUnit.NANOSECONDS.toMillis(scheduler.getWallNanos()) + " ms wall, "
+					+ TimeUnit.NANOSECONDS.toMillis(scheduler.getBusyNanos()) + " ms busy, "
+					+ String.format("efficiency %.2f", scheduler.getEfficiency()) + ", "
+					+ scheduler.getNumStolen() + " stolen");
+			for (Straggler straggler : scheduler.getStragglers()) {
+				System.out.println("  straggler: " + straggler);
+			}
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.IOException;
+
+/**
+ * Lexer which adds the tokens read from another lexer
+ * to a {@link SnapshotBloomFilter} as they pass through,
+ * so that a snapshot's filter is built as a side effect of lexing it.
+ */
+public class BloomFilterLexer implements ILexer {
+	private final ILexer lexer;
+	private final SnapshotBloomFilter filter;
+
+	public BloomFilterLexer(ILexer lexer, SnapshotBloomFilter filter) {
+		this.lexer = lexer;
+		this.filter = filter;
+	}
+
+	@Override
+	public Token readNext() throws IOException, LexerException {
+		Token t = lexer.readNext();
+		if (t != null) {
+			filter.add(t);
+		}
+		return t;
+	}
+
+	public SnapshotBloomFilter getFilter() {
+		return filter;
+	}
+}
@@ -0,0 +1,357 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Skip index for a snapshot archive: a {@link SnapshotBloomFilter}
+ * for each entry, stored in a file beside the archive (the archive's
+ * name with ".bloom" appended).  The filters of all entries are kept in
+ * one array, so a query can be tested against every entry at memory speed,
+ * and only the entries that pass need to be decompressed, lexed and parsed.
+ *
+ * Queries are boolean expressions over terms <code>token:TOKEN_TYPE</code>
+ * and <code>ident:name</code>, using <code>&amp;</code>, <code>|</code>,
+ * and parentheses, for example <code>ident:malloc &amp; token:BOOL</code>.
+ * There is no NOT, since a filter can only show that a snapshot doesn't
+ * contain something.  Entries not in the index always pass.
+ */
+public class BloomIndex {
+	private static final int MAGIC = 0x424c4d49; // "BLMI"
+	private static final int VERSION = 1;
+
+	private final int bloomBits;
+	private final int numHashes;
+	private final int wordsPerEntry;
+	private final Map<String, Integer> entries; // entry name to entry index
+	private long[] words;
+
+	public BloomIndex(int bloomBits, int numHashes) {
+		this.bloomBits = bloomBits;
+		this.numHashes = numHashes;
+		this.wordsPerEntry = SnapshotBloomFilter.getNumWords(bloomBits);
+		this.entries = new HashMap<>();
+		this.words = new long[wordsPerEntry * 16];
+	}
+
+	/**
+	 * @return the index file for given archive
+	 */
+	public static File getIndexFile(File archive) {
+		return new File(archive.getPath() + ".bloom");
+	}
+
+	/**
+	 * Build the index for an archive, and write it beside the archive.
+	 *
+	 * @param archive the archive
+	 * @return the index
+	 * @throws IOException
+	 */
+	public static BloomIndex build(File archive) throws IOException {
+		long length = archive.length(), lastModified = archive.lastModified();
+		BloomIndex index = new BloomIndex(SnapshotBloomFilter.DEFAULT_BLOOM_BITS, SnapshotBloomFilter.DEFAULT_NUM_HASHES);
+		SnapshotBloomFilter filter = new SnapshotBloomFilter(index.bloomBits, index.numHashes);
+		try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(archive)) {
+			Snapshot snapshot;
+			while ((snapshot = source.readNext()) != null) {
+				filter.clear();
+				try (Reader r = snapshot.createReader()) {
+					ILexer lexer = new BloomFilterLexer(new CLexer(r), filter);
+					while (lexer.readNext() != null) {
+					}
+				} catch (LexerException e) {
+					// Contents unknown: the entry must pass every query
+					filter.setAll();
+				}
+				index.add(snapshot.getName(), filter);
+			}
+		}
+		index.write(getIndexFile(archive), length, lastModified);
+		return index;
+	}
+
+	/**
+	 * Load the index for an archive.
+	 *
+	 * @param archive the archive
+	 * @return the index, or null if the archive has no index or the
+	 *         archive has changed since the index was built
+	 * @throws IOException
+	 */
+	public static BloomIndex load(File archive) throws IOException {
+		File file = getIndexFile(archive);
+		if (!file.exists()) {
+			return null;
+		}
+		ByteBuffer buf;
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new IOException("Not a Bloom filter index: " + file);
+		}
+		if (buf.getLong() != archive.length() || buf.getLong() != archive.lastModified()) {
+			return null;
+		}
+		BloomIndex index = new BloomIndex(VarInt.readUnsigned(buf), VarInt.readUnsigned(buf));
+		int numEntries = VarInt.readUnsigned(buf);
+		index.words = new long[Math.max(1, numEntries) * index.wordsPerEntry];
+		for (int i = 0; i < numEntries; i++) {
+			byte[] name = new byte[VarInt.readUnsigned(buf)];
+			buf.get(name);
+			index.entries.put(new String(name, StandardCharsets.UTF_8), i);
+		}
+		buf.asLongBuffer().get(index.words, 0, numEntries * index.wordsPerEntry);
+		return index;
+	}
+
+	/**
+	 * Add an entry.  If there is already an entry with the same name,
+	 * the filters are combined.
+	 *
+	 * @param name   the entry name
+	 * @param filter the entry's filter
+	 */
+	public void add(String name, SnapshotBloomFilter filter) {
+		long[] filterWords = filter.getWords();
+		if (filterWords.length != wordsPerEntry) {
+			throw new IllegalArgumentException("Filter size does not match index");
+		}
+		Integer index = entries.get(name);
+		if (index == null) {
+			index = entries.size();
+			entries.put(name, index);
+			if ((index + 1) * wordsPerEntry > words.length) {
+				words = Arrays.copyOf(words, words.length * 2);
+			}
+		}
+		int offset = index * wordsPerEntry;
+		for (int i = 0; i < wordsPerEntry; i++) {
+			words[offset + i] |= filterWords[i];
+		}
+	}
+
+	public int getNumEntries() {
+		return entries.size();
+	}
+
+	/**
+	 * Get a predicate selecting the entries which might match a query.
+	 * It can be passed to {@link ArchiveSnapshotSource#ArchiveSnapshotSource(File, Predicate, int)}.
+	 *
+	 * @param query the query
+	 * @return predicate which is false for entries that can't match the query
+	 */
+	public Predicate<String> select(String query) {
+		Term term = new QueryParser(query).parse();
+		return name -> {
+			Integer index = entries.get(name);
+			return index == null || term.mightMatch(words, index * wordsPerEntry);
+		};
+	}
+
+	/**
+	 * @return the number of entries which might match a query
+	 */
+	public int count(String query) {
+		Term term = new QueryParser(query).parse();
+		int count = 0;
+		int end = entries.size() * wordsPerEntry;
+		for (int offset = 0; offset < end; offset += wordsPerEntry) {
+			if (term.mightMatch(words, offset)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void write(File file, long archiveLength, long archiveLastModified) throws IOException {
+		VarIntWriter header = new VarIntWriter();
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.writeLong(archiveLength);
+		header.writeLong(archiveLastModified);
+		header.writeUnsigned(bloomBits);
+		header.writeUnsigned(numHashes);
+		header.writeUnsigned(entries.size());
+		String[] names = new String[entries.size()];
+		for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+			names[entry.getValue()] = entry.getKey();
+		}
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			header.writeUnsigned(bytes.length);
+			header.writeBytes(bytes, 0, bytes.length);
+		}
+		// The filters are written in one block of longs, so they can be
+		// read with a single bulk copy
+		VarIntWriter body = new VarIntWriter(entries.size() * wordsPerEntry * 8);
+		for (int i = 0; i < entries.size() * wordsPerEntry; i++) {
+			body.writeLong(words[i]);
+		}
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+			header.writeTo(os);
+			body.writeTo(os);
+		}
+	}
+
+	private interface Term {
+		public boolean mightMatch(long[] words, int offset);
+	}
+
+	/**
+	 * Recursive descent parser for queries.
+	 * AND binds tighter than OR.
+	 */
+	private class QueryParser {
+		private final String query;
+		private int pos;
+
+		public QueryParser(String query) {
+			this.query = query;
+			this.pos = 0;
+		}
+
+		public Term parse() {
+			Term term = parseOr();
+			skipWs();
+			if (pos < query.length()) {
+				throw new IllegalArgumentException("Unexpected character at offset " + pos + " in query: " + query);
+			}
+			return term;
+		}
+
+		private Term parseOr() {
+			List<Term> terms = new ArrayList<>();
+			terms.add(parseAnd());
+			while (accept('|')) {
+				terms.add(parseAnd());
+			}
+			if (terms.size() == 1) {
+				return terms.get(0);
+			}
+			Term[] arr = terms.toArray(new Term[terms.size()]);
+			return (words, offset) -> {
+				for (Term t : arr) {
+					if (t.mightMatch(words, offset)) {
+						return true;
+					}
+				}
+				return false;
+			};
+		}
+
+		private Term parseAnd() {
+			List<Term> terms = new ArrayList<>();
+			terms.add(parsePrimary());
+			while (accept('&')) {
+				terms.add(parsePrimary());
+			}
+			if (terms.size() == 1) {
+				return terms.get(0);
+			}
+			Term[] arr = terms.toArray(new Term[terms.size()]);
+			return (words, offset) -> {
+				for (Term t : arr) {
+					if (!t.mightMatch(words, offset)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+
+		private Term parsePrimary() {
+			if (accept('!')) {
+				throw new IllegalArgumentException("NOT can't be evaluated using Bloom filters: " + query);
+			}
+			if (accept('(')) {
+				Term term = parseOr();
+				if (!accept(')')) {
+					throw new IllegalArgumentException("Missing ) in query: " + query);
+				}
+				return term;
+			}
+			skipWs();
+			int start = pos;
+			while (pos < query.length() && (Character.isLetterOrDigit(query.charAt(pos))
+					|| query.charAt(pos) == '_' || query.charAt(pos) == ':')) {
+				pos++;
+			}
+			String term = query.substring(start, pos);
+			if (term.startsWith("token:")) {
+				TokenType tokenType;
+				try {
+					tokenType = TokenType.valueOf(term.substring(6));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("Invalid term " + term + " in query: " + query);
+				}
+				return (words, offset) -> SnapshotBloomFilter.mightContainTokenType(words, offset, tokenType);
+			} else if (term.startsWith("ident:") && term.length() > 6) {
+				long hash = SnapshotBloomFilter.hash(term.substring(6));
+				return (words, offset) -> SnapshotBloomFilter.mightContainIdentifier(words, offset, bloomBits, numHashes, hash);
+			} else {
+				throw new IllegalArgumentException("Expected token: or ident: term at offset " + start + " in query: " + query);
+			}
+		}
+
+		private boolean accept(char c) {
+			skipWs();
+			if (pos < query.length() && query.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWs() {
+			while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 2 && args[0].equals("build")) {
+			for (int i = 1; i < args.length; i++) {
+				BloomIndex index = build(new File(args[i]));
+				System.out.println(args[i] + ": " + index.getNumEntries() + " entries indexed");
+			}
+		} else if (args.length == 3 && args[0].equals("query")) {
+			// Lex only the entries that pass the filter
+			File archive = new File(args[1]);
+			BloomIndex index = load(archive);
+			if (index == null) {
+				System.err.println("No up-to-date index for " + archive + " (use build)");
+				System.exit(1);
+			}
+			Predicate<String> filter = index.select(args[2]);
+			System.out.println(index.count(args[2]) + " of " + index.getNumEntries() + " entries pass the filter");
+			try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(archive, filter, ArchiveSnapshotSource.DEFAULT_PREFETCH)) {
+				Snapshot snapshot;
+				while ((snapshot = source.readNext()) != null) {
+					System.out.println(snapshot.getName());
+				}
+			}
+		} else {
+			System.err.println("Usage: BloomIndex build <archive>...");
+			System.err.println("       BloomIndex query <archive> <query>");
+			System.exit(1);
+		}
+	}
+}
@@ -18,20 +18,81 @@ import java.util.function.Predicate;
  * @author David Hovemeyer
  */
 public class CLexer implements ILexer {
+	/**
+	 * Version of the lexer: must be incremented whenever a change to the lexer
+	 * could change the tokens produced for some input, so that cached
+	 * tokens (see {@link TokenCache}) are recognized as stale.
+	 */
+	public static final int VERSION = 1;
+	
 	private PushbackReader reader;
+	private SymbolTable symbols;
+	private StringBuilder lexemeBuf;
 	private boolean eof;
+	private boolean inBlockComment;
 	private Position previous, current;
+	private Position tokenStart;
 	
 	public CLexer(Reader reader) {
+		this(reader, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param reader  the Reader to read from
+	 * @param symbols if non-null, identifiers are interned in this symbol table,
+	 *                and tokens carry their symbol ids
+	 */
+	public CLexer(Reader reader, SymbolTable symbols) {
+		this(reader, symbols, new Position(0, 0, 0));
+	}
+	
+	/**
+	 * Constructor for lexing text which starts part way through a larger
+	 * input (at the start of a line, and not within a comment or literal),
+	 * so that tokens have their positions within the larger input.
+	 * 
+	 * @param reader  the Reader to read from
+	 * @param symbols if non-null, identifiers are interned in this symbol table,
+	 *                and tokens carry their symbol ids
+	 * @param start   the position of the first character read from the reader
+	 */
+	public CLexer(Reader reader, SymbolTable symbols, Position start) {
 		this.reader = new PushbackReader(reader, 2);
+		this.symbols = symbols;
+		this.lexemeBuf = new StringBuilder();
 		this.eof = false;
 		this.previous = null;
-		this.current = new Position(0, 0);
+		this.current = start;
+	}
+	
+	/**
+	 * @return the position where the last token (or comment) that
+	 *         the lexer started to read began
+	 */
+	public Position getTokenStart() {
+		return tokenStart;
+	}
+	
+	/**
+	 * @return true if the lexer has reached the end of its input
+	 */
+	public boolean isAtEOF() {
+		return eof;
+	}
+	
+	/**
+	 * @return true if the input ended inside a block comment
+	 */
+	public boolean isInBlockComment() {
+		return inBlockComment;
 	}
 	
 	@Override
 	public Token readNext() throws IOException, LexerException {
 		int first;
+		Position start;
 		boolean sawComment;
 		do {
 			sawComment = false;
@@ -44,6 +105,8 @@ public class CLexer implements ILexer {
 			}
 			
 			// Peek ahead to the next character
+			start = current;
+			tokenStart = start;
 			first = read();
 			if (first < 0) {
 				throw new IllegalStateException("Unexpected EOF?");
@@ -64,7 +127,10 @@ public class CLexer implements ILexer {
 			}
 		} while (sawComment);
 		
+		// Push back the first character, so that the token starts at its position
 		reader.unread(first);
+		current = start;
+		previous = null;
 		
 		switch (first) {
 		// Preprocessor directives
@@ -132,10 +198,10 @@ public class CLexer implements ILexer {
 		return c;
 	}
 	
-	private int mustRead(String msg) throws IOException {
+	private int mustRead(String msg) throws IOException, LexerException {
 		int c = read();
 		if (c < 0) {
-			throw new IOException(msg + " at " + current);
+			throw new LexerException(msg, current);
 		}
 		return c;
 	}
@@ -195,6 +261,7 @@ public class CLexer implements ILexer {
 		while (state != BlockState.DONE) {
 			int c = read();
 			if (c < 0) {
+				inBlockComment = true;
 				break;
 			}
 			switch (state) {
@@ -224,7 +291,7 @@ public class CLexer implements ILexer {
 		} else {
 			column++;
 		}
-		return new Position(row, column);
+		return new Position(row, column, current.getOffset() + 1);
 	}
 
 	private Token readPreproc() throws IOException {
@@ -312,7 +379,7 @@ public class CLexer implements ILexer {
 		Position pos = current;
 		read(); // read op
 		int next = read();
-		if (next == op) {
+		if (next == '=') {
 			return new Token(followedByEqType, concatCodePoints(op, '='), pos);
 		} else {
 			if (next >= 0) {
@@ -465,11 +532,26 @@ public class CLexer implements ILexer {
 	
 	private Token readIdentifierOrKeyword() throws IOException {
 		Position pos = current;
-		String lexeme = munch(c -> Character.isAlphabetic(c) || Character.isDigit(c) || c == '_');
-		if (KEYWORD_MAP.containsKey(lexeme)) {
-			return new Token(KEYWORD_MAP.get(lexeme), lexeme, pos);
+		lexemeBuf.setLength(0);
+		munch(lexemeBuf, c -> Character.isAlphabetic(c) || Character.isDigit(c) || c == '_');
+		
+		// If there is a symbol table, the lexeme is the canonical String
+		// for the identifier, so there is no new String for identifiers
+		// (or keywords) that have been seen before
+		int symbolId = -1;
+		String lexeme;
+		if (symbols != null) {
+			symbolId = symbols.intern(lexemeBuf);
+			lexeme = symbols.getName(symbolId);
+		} else {
+			lexeme = lexemeBuf.toString();
+		}
+		
+		TokenType keyword = KEYWORD_MAP.get(lexeme);
+		if (keyword != null) {
+			return new Token(keyword, lexeme, pos);
 		} else {
-			return new Token(TokenType.IDENT, lexeme, pos);
+			return new Token(TokenType.IDENT, lexeme, pos, symbolId);
 		}
 	}
 	
@@ -483,6 +565,11 @@ public class CLexer implements ILexer {
 	
 	private String munch(Predicate<Integer> pred) throws IOException {
 		StringBuilder buf = new StringBuilder();
+		munch(buf, pred);
+		return buf.toString();
+	}
+	
+	private void munch(StringBuilder buf, Predicate<Integer> pred) throws IOException {
 		boolean done = false;
 		while (!done) {
 			int c = read();
@@ -495,7 +582,6 @@ public class CLexer implements ILexer {
 				buf.append((char)c);
 			}
 		}
-		return buf.toString();
 	}
 	
 	public static void main(String[] args) throws IOException, LexerException {
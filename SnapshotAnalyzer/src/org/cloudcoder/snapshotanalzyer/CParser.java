@@ -26,20 +26,7 @@ public class CParser {
 		root.setStartPos(seq.getPos());
 		
 		while (!seq.isFinished()) {
-			Token first = seq.peek();
-			
-			if (first.getTokenType() == TokenType.INCLUDE) {
-				// include directive: parse until end of line
-				root.getChildren().add(parseToEndOfLine(NodeType.INCLUDE));
-			} else if (first.getTokenType() == TokenType.DEFINE) {
-				// define directive: parse until end of line
-				root.getChildren().add(parseToEndOfLine(NodeType.DEFINE));
-			} else if (first.getTokenType().isType()) {
-				// this is probably a declaration
-				root.getChildren().add(parseDeclaration());
-			} else {
-				throw new ParserException(seq, "Unknown construct at " + seq.peek().getTokenType());
-			}
+			root.getChildren().add(parseTopLevelConstruct());
 		}
 		
 		root.setEndPos(seq.getPos());
@@ -47,6 +34,29 @@ public class CParser {
 		return root;
 	}
 
+	/**
+	 * Parse a single top-level construct (directive or declaration),
+	 * starting at the current position of the token sequence.
+	 * 
+	 * @return the node for the construct
+	 */
+	public Node parseTopLevelConstruct() {
+		Token first = seq.peek();
+		
+		if (first.getTokenType() == TokenType.INCLUDE) {
+			// include directive: parse until end of line
+			return parseToEndOfLine(NodeType.INCLUDE);
+		} else if (first.getTokenType() == TokenType.DEFINE) {
+			// define directive: parse until end of line
+			return parseToEndOfLine(NodeType.DEFINE);
+		} else if (first.getTokenType().isType()) {
+			// this is probably a declaration
+			return parseDeclaration();
+		} else {
+			throw new ParserException(seq, "Unknown construct at " + seq.peek().getTokenType());
+		}
+	}
+
 	private Node parseToEndOfLine(NodeType nodeType) {
 		Node node = new Node(nodeType);
 		
@@ -0,0 +1,335 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * In-memory store of snapshots, compressed with a preset dictionary.
+ * The snapshots of one exercise share most of their text (starter code,
+ * includes, the usual loops), which compressing each snapshot on its own
+ * can't exploit.  A dictionary of the lines that recur across a sample of
+ * the exercise's snapshots (see {@link #trainDictionary(List, int)}) is
+ * given to the compressor for every snapshot, so those lines compress
+ * to back-references.  Use one store per exercise.
+ *
+ * Compressed snapshots are kept in large byte array chunks, with their
+ * metadata in primitive arrays.  They are decompressed directly into the
+ * (reused) buffer of a {@link Snapshot}, e.g. by the source returned by
+ * {@link #createSource()}, just before lexing.  Closing the store frees
+ * its compressor: snapshots can still be read, but not added.
+ */
+public class CompressedSnapshotStore implements Closeable {
+	/** Maximum useful dictionary size: the Deflate window. */
+	public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+	private static final int CHUNK_SIZE = 1 << 20;
+	private static final int MIN_LINE_LENGTH = 4;
+
+	private final byte[] dictionary;
+	private final Deflater deflater;
+	private byte[] deflateBuf;
+	private boolean closed;
+
+	// Compressed data, and per-snapshot metadata
+	private final List<byte[]> chunks;
+	private int chunkPos;
+	private long[] addresses;
+	private int[] compressedLengths, lengths;
+	private long[] submissionIds, timestamps;
+	private final List<String> names;
+	private int size;
+	private long totalLength, totalCompressedLength;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dictionary the preset dictionary (may be empty)
+	 */
+	public CompressedSnapshotStore(byte[] dictionary) {
+		if (dictionary.length > MAX_DICTIONARY_SIZE) {
+			dictionary = Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+		}
+		this.dictionary = dictionary;
+		this.deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+		this.deflateBuf = new byte[8192];
+		this.chunks = new ArrayList<>();
+		this.chunkPos = CHUNK_SIZE;
+		this.addresses = new long[256];
+		this.compressedLengths = new int[256];
+		this.lengths = new int[256];
+		this.submissionIds = new long[256];
+		this.timestamps = new long[256];
+		this.names = new ArrayList<>();
+	}
+
+	/**
+	 * Build a preset dictionary from sample snapshots.  The dictionary is
+	 * made of the lines which occur in more than one sample, preferring
+	 * those which save the most (occurrences times length), arranged in the
+	 * order they first occur, so that runs of common lines (such as starter
+	 * code) can be matched as a whole.
+	 *
+	 * @param samples the sample snapshots' contents
+	 * @param maxSize maximum size of the dictionary (at most {@link #MAX_DICTIONARY_SIZE})
+	 * @return the dictionary
+	 */
+	public static byte[] trainDictionary(List<byte[]> samples, int maxSize) {
+		maxSize = Math.min(maxSize, MAX_DICTIONARY_SIZE);
+
+		// For each distinct line: the number of samples it occurs in,
+		// and the order of its first occurrence
+		Map<String, int[]> stats = new HashMap<>();
+		int order = 0;
+		for (byte[] sample : samples) {
+			String text = new String(sample, StandardCharsets.UTF_8);
+			Set<String> seen = new HashSet<>();
+			int start = 0;
+			while (start < text.length()) {
+				int nl = text.indexOf('\n', start);
+				int end = (nl < 0) ? text.length() : nl + 1;
+				String line = text.substring(start, end);
+				start = end;
+				if (line.trim().length() < MIN_LINE_LENGTH || !seen.add(line)) {
+					continue;
+				}
+				int[] s = stats.get(line);
+				if (s == null) {
+					stats.put(line, new int[] { 1, order++ });
+				} else {
+					s[0]++;
+				}
+			}
+		}
+
+		List<Map.Entry<String, int[]>> common = new ArrayList<>();
+		for (Map.Entry<String, int[]> entry : stats.entrySet()) {
+			if (entry.getValue()[0] > 1) {
+				common.add(entry);
+			}
+		}
+		common.sort((a, b) -> Long.compare((long) b.getValue()[0] * b.getKey().length(),
+				(long) a.getValue()[0] * a.getKey().length()));
+		List<Map.Entry<String, int[]>> chosen = new ArrayList<>();
+		int total = 0;
+		for (Map.Entry<String, int[]> entry : common) {
+			int len = entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+			if (total + len <= maxSize) {
+				chosen.add(entry);
+				total += len;
+			}
+		}
+		chosen.sort((a, b) -> Integer.compare(a.getValue()[1], b.getValue()[1]));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(total);
+		for (Map.Entry<String, int[]> entry : chosen) {
+			byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			out.write(bytes, 0, bytes.length);
+		}
+		return out.toByteArray();
+	}
+
+	public byte[] getDictionary() {
+		return dictionary.clone();
+	}
+
+	/**
+	 * Compress a snapshot and add it to the store.
+	 *
+	 * @param snapshot the snapshot
+	 * @return the id of the stored snapshot
+	 */
+	public synchronized int add(Snapshot snapshot) {
+		if (closed) {
+			throw new IllegalStateException("Store is closed");
+		}
+		deflater.reset();
+		deflater.setDictionary(dictionary);
+		deflater.setInput(snapshot.getData(), 0, snapshot.getLength());
+		deflater.finish();
+		int n = 0;
+		while (!deflater.finished()) {
+			if (n == deflateBuf.length) {
+				deflateBuf = Arrays.copyOf(deflateBuf, n * 2);
+			}
+			n += deflater.deflate(deflateBuf, n, deflateBuf.length - n);
+		}
+
+		// Append the compressed bytes to the current chunk, or to a
+		// chunk of their own if they don't fit in a chunk
+		if (chunkPos + n > CHUNK_SIZE) {
+			chunks.add(new byte[Math.max(n, CHUNK_SIZE)]);
+			chunkPos = 0;
+		}
+		byte[] chunk = chunks.get(chunks.size() - 1);
+		System.arraycopy(deflateBuf, 0, chunk, chunkPos, n);
+
+		int id = size;
+		if (id == addresses.length) {
+			int capacity = id * 2;
+			addresses = Arrays.copyOf(addresses, capacity);
+			compressedLengths = Arrays.copyOf(compressedLengths, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			submissionIds = Arrays.copyOf(submissionIds, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+		}
+		addresses[id] = ((long) (chunks.size() - 1) << 32) | chunkPos;
+		compressedLengths[id] = n;
+		lengths[id] = snapshot.getLength();
+		submissionIds[id] = snapshot.getSubmissionId();
+		timestamps[id] = snapshot.getTimestamp();
+		names.add(snapshot.getName());
+		chunkPos += n;
+		if (chunkPos >= CHUNK_SIZE) {
+			// An oversized chunk is full
+			chunkPos = CHUNK_SIZE;
+		}
+		size = id + 1;
+		totalLength += snapshot.getLength();
+		totalCompressedLength += n;
+		return id;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (!closed) {
+			closed = true;
+			deflater.end();
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized long getTotalLength() {
+		return totalLength;
+	}
+
+	public synchronized long getTotalCompressedLength() {
+		return totalCompressedLength;
+	}
+
+	/**
+	 * Decompress a stored snapshot into given snapshot, replacing its contents.
+	 *
+	 * @param id       the id of the stored snapshot
+	 * @param snapshot the snapshot to fill
+	 * @param inflater the Inflater to use (created with nowrap set to true)
+	 * @throws IOException if the compressed data is corrupt
+	 */
+	public void read(int id, Snapshot snapshot, Inflater inflater) throws IOException {
+		byte[] chunk;
+		int offset, compressedLength, length;
+		synchronized (this) {
+			if (id < 0 || id >= size) {
+				throw new IllegalArgumentException("No snapshot with id " + id);
+			}
+			chunk = chunks.get((int) (addresses[id] >>> 32));
+			offset = (int) addresses[id];
+			compressedLength = compressedLengths[id];
+			length = lengths[id];
+			snapshot.setName(names.get(id));
+			snapshot.setSubmissionId(submissionIds[id]);
+			snapshot.setTimestamp(timestamps[id]);
+		}
+		inflater.reset();
+		inflater.setDictionary(dictionary);
+		InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(chunk, offset, compressedLength), inflater, 512);
+		snapshot.readFrom(in, length);
+	}
+
+	/**
+	 * Create a source which reads all of the stored snapshots in order.
+	 * The source decompresses each snapshot into the same reused
+	 * {@link Snapshot}.  Multiple sources may be used at the same time.
+	 *
+	 * @return the source
+	 */
+	public ISnapshotSource createSource() {
+		return new ISnapshotSource() {
+			private final Snapshot snapshot = new Snapshot();
+			private final Inflater inflater = new Inflater(true);
+			private int next = 0;
+
+			@Override
+			public Snapshot readNext() throws IOException {
+				if (next >= size()) {
+					return null;
+				}
+				read(next++, snapshot, inflater);
+				return snapshot;
+			}
+
+			@Override
+			public void close() {
+				inflater.end();
+			}
+		};
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: CompressedSnapshotStore <archive>...");
+			System.exit(1);
+		}
+		// The archives are assumed to hold the snapshots of one exercise:
+		// the dictionary is trained on up to 500 of them
+		final int numSamples = 500;
+		List<byte[]> samples = new ArrayList<>();
+		for (int i = 0; i < args.length && samples.size() < numSamples; i++) {
+			try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(args[i]))) {
+				Snapshot snapshot;
+				while (samples.size() < numSamples && (snapshot = source.readNext()) != null) {
+					samples.add(Arrays.copyOf(snapshot.getData(), snapshot.getLength()));
+				}
+			}
+		}
+		byte[] dictionary = trainDictionary(samples, MAX_DICTIONARY_SIZE);
+		try (CompressedSnapshotStore store = new CompressedSnapshotStore(dictionary);
+				CompressedSnapshotStore plain = new CompressedSnapshotStore(new byte[0])) {
+			for (String arg : args) {
+				try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(arg))) {
+					Snapshot snapshot;
+					while ((snapshot = source.readNext()) != null) {
+						store.add(snapshot);
+						plain.add(snapshot);
+					}
+				}
+			}
+			System.out.println(store.size() + " snapshots, " + store.getTotalLength() + " bytes; dictionary " + dictionary.length
+					+ " bytes; compressed " + store.getTotalCompressedLength() + " bytes with dictionary, "
+					+ plain.getTotalCompressedLength() + " bytes without");
+
+			// Lex every snapshot straight from the store
+			long start = System.nanoTime();
+			long tokens = 0, errors = 0;
+			try (ISnapshotSource source = store.createSource()) {
+				Snapshot snapshot;
+				while ((snapshot = source.readNext()) != null) {
+					try (Reader r = snapshot.createReader()) {
+						tokens += LexerUtil.readAll(new CLexer(r)).size();
+					} catch (LexerException e) {
+						errors++;
+					}
+				}
+			}
+			System.out.println(tokens + " tokens lexed (" + errors + " snapshots could not be lexed) in "
+					+ (System.nanoTime() - start) / 1000000L + " ms");
+		}
+	}
+}
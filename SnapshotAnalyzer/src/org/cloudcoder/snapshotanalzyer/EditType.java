@@ -0,0 +1,10 @@
+package org.cloudcoder.snapshotanalzyer;
+
+/**
+ * Kinds of hunk reported by a {@link TokenDiff}.
+ */
+public enum EditType {
+	INSERT,  // tokens only in the new sequence
+	DELETE,  // tokens only in the old sequence
+	REPLACE, // tokens in the old sequence replaced by tokens in the new sequence
+}
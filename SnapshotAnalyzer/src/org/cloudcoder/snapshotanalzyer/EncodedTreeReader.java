@@ -0,0 +1,233 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cursor over a tree encoded by {@link TreeEncoder}, reading directly
+ * from a (typically memory-mapped) buffer without creating
+ * {@link Node} objects.  Moving to the next sibling skips the
+ * current node's entire subtree using its stored byte length.
+ * The cursor's state is kept in primitive arrays, so navigation does not
+ * allocate.
+ */
+public class EncodedTreeReader {
+	private static final NodeType[] NODE_TYPES = NodeType.values();
+
+	private final ByteBuffer buf;
+	private final int rootOffset;
+
+	// Stacks indexed by depth: offset of the node's header,
+	// the node's start position, and the offset of the end of the node's subtree
+	private int[] offsetStack, startStack, endStack;
+	private int depth;
+
+	// Decoded header of the current node
+	private NodeType nodeType;
+	private int startPos, endPos, numChildren, bodyOffset;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param buf the buffer containing the encoded tree, positioned
+	 *            at the file header written by {@link TreeEncoder#encode(Node, VarIntWriter)}
+	 * @throws IOException if the header is invalid
+	 */
+	public EncodedTreeReader(ByteBuffer buf) throws IOException {
+		this.buf = buf.duplicate();
+		if (this.buf.remaining() < 8 || this.buf.getInt() != TreeEncoder.MAGIC) {
+			throw new IOException("Not an encoded tree");
+		}
+		int version = this.buf.getInt();
+		if (version != TreeEncoder.VERSION) {
+			throw new IOException("Unsupported encoded tree version " + version);
+		}
+		this.rootOffset = this.buf.position();
+		this.offsetStack = new int[32];
+		this.startStack = new int[32];
+		this.endStack = new int[32];
+		moveToRoot();
+	}
+
+	/**
+	 * Memory-map a file containing an encoded tree.
+	 *
+	 * @param file the file
+	 * @return an EncodedTreeReader positioned at the root of the tree
+	 * @throws IOException
+	 */
+	public static EncodedTreeReader map(File file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return new EncodedTreeReader(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		}
+	}
+
+	/**
+	 * Move back to the root of the tree.
+	 */
+	public void reset() {
+		moveToRoot();
+	}
+
+	private void moveToRoot() {
+		depth = 0;
+		readHeader(rootOffset, 0);
+	}
+
+	public NodeType getNodeType() {
+		return nodeType;
+	}
+
+	public int getStartPos() {
+		return startPos;
+	}
+
+	public int getEndPos() {
+		return endPos;
+	}
+
+	public int getNumChildren() {
+		return numChildren;
+	}
+
+	/**
+	 * @return depth of the current node (the root is at depth 0)
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Move to the first child of the current node.
+	 *
+	 * @return true if successful, false if the current node has no children
+	 */
+	public boolean gotoFirstChild() {
+		if (numChildren == 0) {
+			return false;
+		}
+		int parentStart = startPos;
+		depth++;
+		readHeader(bodyOffset, parentStart);
+		return true;
+	}
+
+	/**
+	 * Move to the next sibling of the current node, skipping
+	 * the current node's subtree.
+	 *
+	 * @return true if successful, false if the current node is the last child
+	 */
+	public boolean gotoNextSibling() {
+		if (depth == 0) {
+			return false;
+		}
+		int next = endStack[depth];
+		if (next >= endStack[depth - 1]) {
+			return false;
+		}
+		readHeader(next, startStack[depth - 1]);
+		return true;
+	}
+
+	/**
+	 * Move to the parent of the current node.
+	 *
+	 * @return true if successful, false if the current node is the root
+	 */
+	public boolean gotoParent() {
+		if (depth == 0) {
+			return false;
+		}
+		depth--;
+		readHeader(offsetStack[depth], depth > 0 ? startStack[depth - 1] : 0);
+		return true;
+	}
+
+	/**
+	 * Move to the next node in preorder.
+	 *
+	 * @param skipChildren if true, the children of the current node are skipped
+	 * @return true if successful, false if there are no more nodes
+	 */
+	public boolean next(boolean skipChildren) {
+		if (!skipChildren && gotoFirstChild()) {
+			return true;
+		}
+		while (!gotoNextSibling()) {
+			if (!gotoParent()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decode the subtree rooted at the current node into Node objects.
+	 *
+	 * @return the root Node of the subtree
+	 */
+	public Node toNode() {
+		Node node = new Node(nodeType);
+		node.setStartPos(startPos);
+		node.setEndPos(endPos);
+		if (gotoFirstChild()) {
+			do {
+				node.getChildren().add(toNode());
+			} while (gotoNextSibling());
+			gotoParent();
+		}
+		return node;
+	}
+
+	private void readHeader(int offset, int parentStart) {
+		if (depth >= offsetStack.length) {
+			int n = offsetStack.length * 2;
+			offsetStack = Arrays.copyOf(offsetStack, n);
+			startStack = Arrays.copyOf(startStack, n);
+			endStack = Arrays.copyOf(endStack, n);
+		}
+		buf.position(offset);
+		nodeType = NODE_TYPES[VarInt.readUnsigned(buf)];
+		startPos = parentStart + VarInt.readSigned(buf);
+		endPos = startPos + VarInt.readSigned(buf);
+		numChildren = VarInt.readUnsigned(buf);
+		int bodyLength = VarInt.readUnsigned(buf);
+		bodyOffset = buf.position();
+
+		offsetStack[depth] = offset;
+		startStack[depth] = startPos;
+		endStack[depth] = bodyOffset + bodyLength;
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		// Encode the parse tree of each file named on the command line,
+		// then print the tree by walking the encoding
+		for (String arg : args) {
+			try (Reader r = new FileReader(arg)) {
+				List<Token> tokens = LexerUtil.readAll(new CLexer(r));
+				Node unit = new CParser(new TokenSequence(tokens)).parse();
+				VarIntWriter out = new VarIntWriter();
+				new TreeEncoder().encode(unit, out);
+				System.out.println(arg + ": " + tokens.size() + " tokens, " + out.size() + " bytes encoded");
+				EncodedTreeReader reader = new EncodedTreeReader(ByteBuffer.wrap(out.toByteArray()));
+				do {
+					StringBuilder line = new StringBuilder();
+					for (int i = 0; i < reader.getDepth(); i++) {
+						line.append("  ");
+					}
+					line.append(reader.getNodeType()).append(" [").append(reader.getStartPos())
+							.append(", ").append(reader.getEndPos()).append(")");
+					System.out.println(line);
+				} while (reader.next(false));
+			}
+		}
+	}
+}
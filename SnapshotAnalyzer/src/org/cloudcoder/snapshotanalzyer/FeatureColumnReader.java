@@ -0,0 +1,270 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads files written by {@link FeatureColumnWriter}.
+ * Only the chunks of the columns that are actually read are fetched
+ * from the file, and the per-chunk min/max statistics allow entire
+ * row groups to be skipped without reading them.
+ */
+public class FeatureColumnReader implements Closeable {
+	private final FileChannel ch;
+	private final String[] columnNames;
+	private final int[] rowGroupSizes;
+	private final long[] rowGroupStarts;
+	// Chunk metadata, indexed by (rowGroup * numColumns + column)
+	private final long[] chunkOffsets;
+	private final int[] chunkLengths;
+	private final int[] chunkEncodings;
+	private final long[] chunkMins, chunkMaxes;
+	private ByteBuffer chunkBuf;
+
+	public FeatureColumnReader(File file) throws IOException {
+		this.ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			ByteBuffer tail = read(size - 8, 8);
+			int footerLength = tail.getInt();
+			if (size < 16 || tail.getInt() != FeatureColumnWriter.MAGIC) {
+				throw new IOException("Not a feature column file: " + file);
+			}
+			ByteBuffer header = read(0, 8);
+			header.getInt();
+			int version = header.getInt();
+			if (version != FeatureColumnWriter.VERSION) {
+				throw new IOException("Unsupported feature column file version " + version);
+			}
+
+			ByteBuffer footer = read(size - 8 - footerLength, footerLength);
+			int numColumns = VarInt.readUnsigned(footer);
+			columnNames = new String[numColumns];
+			for (int i = 0; i < numColumns; i++) {
+				byte[] bytes = new byte[VarInt.readUnsigned(footer)];
+				footer.get(bytes);
+				columnNames[i] = new String(bytes, StandardCharsets.UTF_8);
+			}
+			int numRowGroups = VarInt.readUnsigned(footer);
+			rowGroupSizes = new int[numRowGroups];
+			rowGroupStarts = new long[numRowGroups];
+			int numChunks = numRowGroups * numColumns;
+			chunkOffsets = new long[numChunks];
+			chunkLengths = new int[numChunks];
+			chunkEncodings = new int[numChunks];
+			chunkMins = new long[numChunks];
+			chunkMaxes = new long[numChunks];
+			long row = 0;
+			for (int g = 0; g < numRowGroups; g++) {
+				rowGroupSizes[g] = VarInt.readUnsigned(footer);
+				rowGroupStarts[g] = row;
+				row += rowGroupSizes[g];
+				for (int c = 0; c < numColumns; c++) {
+					int chunk = g * numColumns + c;
+					chunkOffsets[chunk] = VarInt.readUnsignedLong(footer);
+					chunkLengths[chunk] = VarInt.readUnsigned(footer);
+					chunkEncodings[chunk] = VarInt.readUnsigned(footer);
+					chunkMins[chunk] = VarInt.readSignedLong(footer);
+					chunkMaxes[chunk] = VarInt.readSignedLong(footer);
+				}
+			}
+			chunkBuf = ByteBuffer.allocate(4096);
+		} catch (IOException | RuntimeException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	public int getNumColumns() {
+		return columnNames.length;
+	}
+
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	/**
+	 * @param name a column name
+	 * @return the index of the column, or -1 if there is no such column
+	 */
+	public int indexOf(String name) {
+		for (int i = 0; i < columnNames.length; i++) {
+			if (columnNames[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int getNumRowGroups() {
+		return rowGroupSizes.length;
+	}
+
+	public int getNumRows(int rowGroup) {
+		return rowGroupSizes[rowGroup];
+	}
+
+	/**
+	 * @return the index (within the file) of the first row of given row group
+	 */
+	public long getFirstRow(int rowGroup) {
+		return rowGroupStarts[rowGroup];
+	}
+
+	public long getMin(int rowGroup, int column) {
+		return chunkMins[rowGroup * columnNames.length + column];
+	}
+
+	public long getMax(int rowGroup, int column) {
+		return chunkMaxes[rowGroup * columnNames.length + column];
+	}
+
+	/**
+	 * Check whether a row group could contain a value in given range
+	 * in given column, based on the row group's statistics.
+	 *
+	 * @return false if no row in the row group has a value in the range
+	 */
+	public boolean mayContain(int rowGroup, int column, long min, long max) {
+		return getMax(rowGroup, column) >= min && getMin(rowGroup, column) <= max;
+	}
+
+	/**
+	 * Read the values of one column in one row group.
+	 *
+	 * @param rowGroup the row group
+	 * @param column   the column
+	 * @param out      array to store the values in: must have room for
+	 *                 {@link #getNumRows(int)} values
+	 * @throws IOException
+	 */
+	public void readColumn(int rowGroup, int column, long[] out) throws IOException {
+		int chunk = rowGroup * columnNames.length + column;
+		int n = rowGroupSizes[rowGroup];
+		ByteBuffer buf = readChunk(chunkOffsets[chunk], chunkLengths[chunk]);
+		switch (chunkEncodings[chunk]) {
+		case FeatureColumnWriter.PLAIN:
+			for (int i = 0; i < n; i++) {
+				out[i] = VarInt.readSignedLong(buf);
+			}
+			break;
+		case FeatureColumnWriter.DELTA:
+			long prev = 0;
+			for (int i = 0; i < n; i++) {
+				prev += VarInt.readSignedLong(buf);
+				out[i] = prev;
+			}
+			break;
+		case FeatureColumnWriter.RLE:
+			for (int i = 0; i < n; ) {
+				int runLength = VarInt.readUnsigned(buf);
+				long value = VarInt.readSignedLong(buf);
+				for (int j = 0; j < runLength; j++) {
+					out[i++] = value;
+				}
+			}
+			break;
+		case FeatureColumnWriter.DICTIONARY:
+			int dictSize = VarInt.readUnsigned(buf);
+			long[] dict = new long[dictSize];
+			for (int i = 0; i < dictSize; i++) {
+				dict[i] = VarInt.readSignedLong(buf);
+			}
+			int width = 32 - Integer.numberOfLeadingZeros(dictSize - 1);
+			int mask = (1 << width) - 1;
+			int bits = 0, numBits = 0;
+			for (int i = 0; i < n; i++) {
+				while (numBits < width) {
+					bits |= (buf.get() & 0xFF) << numBits;
+					numBits += 8;
+				}
+				out[i] = dict[bits & mask];
+				bits >>>= width;
+				numBits -= width;
+			}
+			break;
+		default:
+			throw new IOException("Unknown chunk encoding " + chunkEncodings[chunk]);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		ch.close();
+	}
+
+	private ByteBuffer readChunk(long offset, int length) throws IOException {
+		if (chunkBuf.capacity() < length) {
+			chunkBuf = ByteBuffer.allocate(Math.max(length, chunkBuf.capacity() * 2));
+		}
+		chunkBuf.clear();
+		chunkBuf.limit(length);
+		readFully(chunkBuf, offset);
+		return chunkBuf;
+	}
+
+	private ByteBuffer read(long offset, int length) throws IOException {
+		if (offset < 0 || length < 0) {
+			throw new IOException("Corrupt feature column file");
+		}
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		readFully(buf, offset);
+		return buf;
+	}
+
+	private void readFully(ByteBuffer buf, long offset) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = ch.read(buf, offset);
+			if (n < 0) {
+				throw new EOFException("Unexpected end of feature column file");
+			}
+			offset += n;
+		}
+		buf.flip();
+	}
+
+	public static void main(String[] args) throws IOException {
+		// Count the rows in which a column's value is in the given range,
+		// skipping row groups whose statistics rule out a match
+		if (args.length != 4) {
+			System.err.println("Usage: FeatureColumnReader <file> <column> <min> <max>");
+			System.exit(1);
+		}
+		try (FeatureColumnReader reader = new FeatureColumnReader(new File(args[0]))) {
+			int column = reader.indexOf(args[1]);
+			if (column < 0) {
+				System.err.println("No such column: " + args[1]);
+				System.exit(1);
+			}
+			long min = Long.parseLong(args[2]), max = Long.parseLong(args[3]);
+			long count = 0, total = 0;
+			int skipped = 0;
+			long[] values = new long[0];
+			for (int g = 0; g < reader.getNumRowGroups(); g++) {
+				int n = reader.getNumRows(g);
+				total += n;
+				if (!reader.mayContain(g, column, min, max)) {
+					skipped++;
+					continue;
+				}
+				if (values.length < n) {
+					values = new long[n];
+				}
+				reader.readColumn(g, column, values);
+				for (int i = 0; i < n; i++) {
+					if (values[i] >= min && values[i] <= max) {
+						count++;
+					}
+				}
+			}
+			System.out.println(count + " of " + total + " rows match (" + skipped + " of "
+					+ reader.getNumRowGroups() + " row groups skipped)");
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes rows of feature values in a columnar format.
+ * Rows are buffered into row groups.  Within a row group, each column
+ * is stored as a separate chunk, encoded with whichever of plain,
+ * delta, run-length, or dictionary encoding is smallest for that chunk,
+ * along with the minimum and maximum value in the chunk.
+ * All values are longs (written as zig-zag varints), so that
+ * key columns such as submission ids and timestamps can be stored
+ * alongside the int-valued features.
+ *
+ * File layout: a header ("FCOL" magic and version), the column chunks of
+ * each row group, and a footer containing the column names and, for each
+ * row group, its row count and the offset, length, encoding, min and max
+ * of each of its chunks.  The file ends with the footer length and the
+ * magic number, so a reader can find the footer.
+ * See {@link FeatureColumnReader}.
+ */
+public class FeatureColumnWriter implements Closeable {
+	public static final int MAGIC = 0x46434f4c; // "FCOL"
+	public static final int VERSION = 1;
+	public static final int DEFAULT_ROW_GROUP_SIZE = 16384;
+
+	// Chunk encodings
+	public static final int PLAIN = 0;
+	public static final int DELTA = 1;
+	public static final int RLE = 2;
+	public static final int DICTIONARY = 3;
+
+	private static final int MAX_DICTIONARY_SIZE = 256;
+	private static final int DICT_TABLE_SIZE = 1024; // power of 2, larger than MAX_DICTIONARY_SIZE
+
+	private final OutputStream out;
+	private final String[] columnNames;
+	private final int rowGroupSize;
+	private final long[][] values; // indexed by column, then row within row group
+	private int numRows;
+	private long position;
+
+	private final VarIntWriter footer;
+	private int numRowGroups;
+	private final VarIntWriter[] candidates;
+	private final VarIntWriter chunkOut;
+	private long[] dict;
+	private long[] dictTableKeys; // open-addressed hash table mapping values to dictionary indices
+	private int[] dictTableIndices;
+
+	public FeatureColumnWriter(File file, String[] columnNames) throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), columnNames, DEFAULT_ROW_GROUP_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param out          the output stream to write to
+	 * @param columnNames  the names of the columns
+	 * @param rowGroupSize the number of rows in each row group
+	 * @throws IOException
+	 */
+	public FeatureColumnWriter(OutputStream out, String[] columnNames, int rowGroupSize) throws IOException {
+		this.out = out;
+		this.columnNames = columnNames.clone();
+		this.rowGroupSize = rowGroupSize;
+		this.values = new long[columnNames.length][rowGroupSize];
+		this.numRows = 0;
+		this.footer = new VarIntWriter();
+		this.numRowGroups = 0;
+		this.candidates = new VarIntWriter[4];
+		for (int i = 0; i < candidates.length; i++) {
+			candidates[i] = new VarIntWriter(4096);
+		}
+		this.chunkOut = new VarIntWriter(4096);
+		this.dict = new long[MAX_DICTIONARY_SIZE];
+		this.dictTableKeys = new long[DICT_TABLE_SIZE];
+		this.dictTableIndices = new int[DICT_TABLE_SIZE];
+
+		chunkOut.writeInt(MAGIC);
+		chunkOut.writeInt(VERSION);
+		writeChunk(chunkOut);
+	}
+
+	/**
+	 * Get column names for a file containing given key columns
+	 * followed by the features in a schema.
+	 *
+	 * @param keyColumns the names of the key columns
+	 * @param schema     the feature schema
+	 * @return the column names
+	 */
+	public static String[] getColumnNames(String[] keyColumns, FeatureSchema schema) {
+		String[] names = Arrays.copyOf(keyColumns, keyColumns.length + schema.getNumFeatures());
+		for (int i = 0; i < schema.getNumFeatures(); i++) {
+			names[keyColumns.length + i] = schema.getName(i);
+		}
+		return names;
+	}
+
+	/**
+	 * Set the value of a column in the current row.
+	 */
+	public void set(int column, long value) {
+		values[column][numRows] = value;
+	}
+
+	/**
+	 * Set the values of consecutive columns in the current row
+	 * to the values of a feature vector.
+	 *
+	 * @param firstColumn the column of the first feature
+	 * @param features    the features
+	 */
+	public void set(int firstColumn, FeatureVector features) {
+		int[] featureValues = features.getValues();
+		for (int i = 0; i < featureValues.length; i++) {
+			values[firstColumn + i][numRows] = featureValues[i];
+		}
+	}
+
+	/**
+	 * Finish the current row.  Columns not set in the row are 0.
+	 *
+	 * @throws IOException
+	 */
+	public void endRow() throws IOException {
+		numRows++;
+		if (numRows == rowGroupSize) {
+			writeRowGroup();
+		}
+		for (long[] column : values) {
+			column[numRows] = 0L;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (numRows > 0) {
+				writeRowGroup();
+			}
+
+			VarIntWriter buf = new VarIntWriter();
+			buf.writeUnsigned(columnNames.length);
+			for (String name : columnNames) {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				buf.writeUnsigned(bytes.length);
+				buf.writeBytes(bytes, 0, bytes.length);
+			}
+			buf.writeUnsigned(numRowGroups);
+			buf.writeBytes(footer);
+			buf.writeInt(buf.size());
+			buf.writeInt(MAGIC);
+			writeChunk(buf);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeRowGroup() throws IOException {
+		footer.writeUnsigned(numRows);
+		for (int col = 0; col < columnNames.length; col++) {
+			long[] column = values[col];
+			long min = column[0], max = column[0];
+			for (int i = 1; i < numRows; i++) {
+				min = Math.min(min, column[i]);
+				max = Math.max(max, column[i]);
+			}
+
+			// Try each encoding, and keep the smallest
+			int best = PLAIN;
+			encodePlain(column, candidates[PLAIN]);
+			encodeDelta(column, candidates[DELTA]);
+			encodeRle(column, candidates[RLE]);
+			boolean dictOk = encodeDictionary(column, candidates[DICTIONARY]);
+			for (int enc = DELTA; enc <= DICTIONARY; enc++) {
+				if ((enc != DICTIONARY || dictOk) && candidates[enc].size() < candidates[best].size()) {
+					best = enc;
+				}
+			}
+
+			footer.writeUnsignedLong(position);
+			footer.writeUnsigned(candidates[best].size());
+			footer.writeUnsigned(best);
+			footer.writeSignedLong(min);
+			footer.writeSignedLong(max);
+			writeChunk(candidates[best]);
+		}
+		numRowGroups++;
+		numRows = 0;
+	}
+
+	private void writeChunk(VarIntWriter chunk) throws IOException {
+		chunk.writeTo(out);
+		position += chunk.size();
+		chunk.reset();
+	}
+
+	private void encodePlain(long[] column, VarIntWriter buf) {
+		buf.reset();
+		for (int i = 0; i < numRows; i++) {
+			buf.writeSignedLong(column[i]);
+		}
+	}
+
+	private void encodeDelta(long[] column, VarIntWriter buf) {
+		buf.reset();
+		long prev = 0;
+		for (int i = 0; i < numRows; i++) {
+			buf.writeSignedLong(column[i] - prev);
+			prev = column[i];
+		}
+	}
+
+	private void encodeRle(long[] column, VarIntWriter buf) {
+		buf.reset();
+		int i = 0;
+		while (i < numRows) {
+			int j = i + 1;
+			while (j < numRows && column[j] == column[i]) {
+				j++;
+			}
+			buf.writeUnsigned(j - i);
+			buf.writeSignedLong(column[i]);
+			i = j;
+		}
+	}
+
+	private boolean encodeDictionary(long[] column, VarIntWriter buf) {
+		buf.reset();
+
+		// Build the dictionary (in order of first occurrence)
+		Arrays.fill(dictTableIndices, -1);
+		int dictSize = 0;
+		for (int i = 0; i < numRows; i++) {
+			int slot = findSlot(column[i]);
+			if (dictTableIndices[slot] < 0) {
+				if (dictSize == MAX_DICTIONARY_SIZE) {
+					return false;
+				}
+				dictTableKeys[slot] = column[i];
+				dictTableIndices[slot] = dictSize;
+				dict[dictSize++] = column[i];
+			}
+		}
+
+		buf.writeUnsigned(dictSize);
+		for (int i = 0; i < dictSize; i++) {
+			buf.writeSignedLong(dict[i]);
+		}
+
+		// Bit-pack the dictionary indices
+		int width = 32 - Integer.numberOfLeadingZeros(dictSize - 1);
+		int bits = 0, numBits = 0;
+		for (int i = 0; i < numRows; i++) {
+			bits |= dictTableIndices[findSlot(column[i])] << numBits;
+			numBits += width;
+			while (numBits >= 8) {
+				buf.writeByte(bits);
+				bits >>>= 8;
+				numBits -= 8;
+			}
+		}
+		if (numBits > 0) {
+			buf.writeByte(bits);
+		}
+		return true;
+	}
+
+	private int findSlot(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		int slot = (int) (h >>> 54) & (DICT_TABLE_SIZE - 1);
+		while (dictTableIndices[slot] >= 0 && dictTableKeys[slot] != value) {
+			slot = (slot + 1) & (DICT_TABLE_SIZE - 1);
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,158 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a set of {@link IFeatureExtractor}s over snapshots.
+ * All of the extractors are fused into one pass over the token
+ * stream and one traversal of the parse tree.  Each node is only
+ * dispatched to the extractors interested in its node type, so adding
+ * an extractor adds only the cost of the callbacks it asks for.
+ *
+ * An engine (including its extractors) should only be used by one thread
+ * at a time.
+ */
+public class FeatureExtractionEngine {
+	private static final IFeatureExtractor[] NONE = new IFeatureExtractor[0];
+
+	private final FeatureSchema schema;
+	private final List<IFeatureExtractor> extractors;
+	private IFeatureExtractor[] tokenExtractors;
+	private IFeatureExtractor[][] nodeExtractors; // indexed by NodeType ordinal
+	private final TreeWalker walker;
+	private final ITreeVisitor visitor;
+	private FeatureVector current;
+
+	public FeatureExtractionEngine() {
+		this.schema = new FeatureSchema();
+		this.extractors = new ArrayList<>();
+		this.tokenExtractors = NONE;
+		this.nodeExtractors = new IFeatureExtractor[NodeType.values().length][];
+		Arrays.fill(nodeExtractors, NONE);
+		this.walker = new TreeWalker();
+		this.visitor = new ITreeVisitor() {
+			@Override
+			public boolean enter(Node node, int depth) {
+				Node parent = walker.getParent(depth);
+				for (IFeatureExtractor extractor : nodeExtractors[node.getNodeType().ordinal()]) {
+					extractor.enterNode(node, parent, depth, current);
+				}
+				return true;
+			}
+
+			@Override
+			public void exit(Node node, int depth) {
+				Node parent = walker.getParent(depth);
+				for (IFeatureExtractor extractor : nodeExtractors[node.getNodeType().ordinal()]) {
+					extractor.exitNode(node, parent, depth, current);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Create an engine with the standard feature extractors.
+	 *
+	 * @return the engine
+	 */
+	public static FeatureExtractionEngine createStandard() {
+		FeatureExtractionEngine engine = new FeatureExtractionEngine();
+		engine.addExtractor(new NodeTypeCountExtractor());
+		engine.addExtractor(new TokenTypeCountExtractor());
+		engine.addExtractor(new LoopNestingExtractor());
+		engine.addExtractor(new FunctionDefinitionExtractor());
+		engine.addExtractor(new IfElseChainExtractor());
+		return engine;
+	}
+
+	/**
+	 * Add a feature extractor.  All extractors should be added before
+	 * any feature vectors are created.
+	 *
+	 * @param extractor the extractor
+	 */
+	public void addExtractor(IFeatureExtractor extractor) {
+		extractor.addFeatures(schema);
+		extractors.add(extractor);
+		if (extractor.wantsTokens()) {
+			tokenExtractors = append(tokenExtractors, extractor);
+		}
+		for (NodeType nodeType : extractor.getNodeTypes()) {
+			nodeExtractors[nodeType.ordinal()] = append(nodeExtractors[nodeType.ordinal()], extractor);
+		}
+	}
+
+	public FeatureSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * @return a new feature vector with one element for each feature in the schema
+	 */
+	public FeatureVector createFeatureVector() {
+		return new FeatureVector(schema.getNumFeatures());
+	}
+
+	/**
+	 * Extract features from a snapshot.
+	 *
+	 * @param seq      the snapshot's tokens
+	 * @param unit     the snapshot's parse tree
+	 * @param features the feature vector in which to store the features
+	 */
+	public void extract(TokenSequence seq, Node unit, FeatureVector features) {
+		features.clear();
+		for (IFeatureExtractor extractor : extractors) {
+			extractor.startSnapshot(seq, features);
+		}
+
+		if (tokenExtractors.length > 0) {
+			int numTokens = seq.size();
+			for (int i = 0; i < numTokens; i++) {
+				Token token = seq.get(i);
+				for (IFeatureExtractor extractor : tokenExtractors) {
+					extractor.visitToken(token, features);
+				}
+			}
+		}
+
+		current = features;
+		walker.walk(unit, visitor);
+		current = null;
+
+		for (IFeatureExtractor extractor : extractors) {
+			extractor.finishSnapshot(features);
+		}
+	}
+
+	private static IFeatureExtractor[] append(IFeatureExtractor[] arr, IFeatureExtractor extractor) {
+		IFeatureExtractor[] result = Arrays.copyOf(arr, arr.length + 1);
+		result[arr.length] = extractor;
+		return result;
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		// Print the standard features of each file named on the command line
+		FeatureExtractionEngine engine = createStandard();
+		FeatureSchema schema = engine.getSchema();
+		FeatureVector features = engine.createFeatureVector();
+		for (String arg : args) {
+			try (Reader r = new FileReader(arg)) {
+				TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+				Node unit = new CParser(seq).parse();
+				engine.extract(seq, unit, features);
+				System.out.println(arg + ":");
+				for (int i = 0; i < features.size(); i++) {
+					if (features.get(i) != 0) {
+						System.out.println("  " + schema.getName(i) + "=" + features.get(i));
+					}
+				}
+			}
+		}
+	}
+}
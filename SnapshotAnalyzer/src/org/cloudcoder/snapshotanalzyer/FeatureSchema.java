@@ -0,0 +1,53 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The names of the features in a {@link FeatureVector}.
+ * Each feature is assigned an index when it is added.
+ */
+public class FeatureSchema {
+	private final List<String> names;
+	private final Map<String, Integer> indices;
+
+	public FeatureSchema() {
+		this.names = new ArrayList<>();
+		this.indices = new HashMap<>();
+	}
+
+	/**
+	 * Add a feature.
+	 *
+	 * @param name the name of the feature: must be unique
+	 * @return the index of the feature
+	 */
+	public int addFeature(String name) {
+		if (indices.containsKey(name)) {
+			throw new IllegalArgumentException("Duplicate feature " + name);
+		}
+		int index = names.size();
+		names.add(name);
+		indices.put(name, index);
+		return index;
+	}
+
+	public int getNumFeatures() {
+		return names.size();
+	}
+
+	public String getName(int index) {
+		return names.get(index);
+	}
+
+	/**
+	 * @param name a feature name
+	 * @return the index of the feature, or -1 if there is no such feature
+	 */
+	public int indexOf(String name) {
+		Integer index = indices.get(name);
+		return index != null ? index : -1;
+	}
+}
@@ -0,0 +1,56 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.Arrays;
+
+/**
+ * Feature values for one snapshot, indexed as described by
+ * a {@link FeatureSchema}.  Feature vectors are meant to be reused
+ * from one snapshot to the next.
+ */
+public class FeatureVector {
+	private final int[] values;
+
+	public FeatureVector(int numFeatures) {
+		this.values = new int[numFeatures];
+	}
+
+	public int size() {
+		return values.length;
+	}
+
+	public int get(int index) {
+		return values[index];
+	}
+
+	public void set(int index, int value) {
+		values[index] = value;
+	}
+
+	public void increment(int index) {
+		values[index]++;
+	}
+
+	/**
+	 * Set a feature to given value if it is larger than the current value.
+	 */
+	public void max(int index, int value) {
+		if (value > values[index]) {
+			values[index] = value;
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(values, 0);
+	}
+
+	public void copyFrom(FeatureVector other) {
+		System.arraycopy(other.values, 0, values, 0, values.length);
+	}
+
+	/**
+	 * @return the array of values (not a copy)
+	 */
+	public int[] getValues() {
+		return values;
+	}
+}
@@ -0,0 +1,36 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Counts function definitions and function prototypes.
+ */
+public class FunctionDefinitionExtractor implements IFeatureExtractor {
+	private int definitionsIndex, prototypesIndex;
+
+	@Override
+	public void addFeatures(FeatureSchema schema) {
+		definitionsIndex = schema.addFeature("functions_defined");
+		prototypesIndex = schema.addFeature("function_prototypes");
+	}
+
+	@Override
+	public EnumSet<NodeType> getNodeTypes() {
+		return EnumSet.of(NodeType.DECLARATOR);
+	}
+
+	@Override
+	public void enterNode(Node node, Node parent, int depth, FeatureVector features) {
+		// A function declarator has a parameter list, and a function
+		// definition also has a body
+		List<Node> children = node.getChildren();
+		if (!children.isEmpty() && children.get(0).getNodeType() == NodeType.PARAMETER_LIST) {
+			if (children.size() > 1 && children.get(1).getNodeType() == NodeType.BLOCK_STATEMENT) {
+				features.increment(definitionsIndex);
+			} else {
+				features.increment(prototypesIndex);
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.cloudcoder.snapshotanalzyer;
+
+/**
+ * Receives the hunks found by a {@link TokenDiff}, in order.
+ * Ranges are token indices: start is inclusive, end is exclusive.
+ */
+public interface IDiffHandler {
+	/**
+	 * Called for each hunk.
+	 *
+	 * @param type     the type of hunk
+	 * @param oldStart start of the hunk in the old sequence
+	 * @param oldEnd   end of the hunk in the old sequence (equal to oldStart for an insertion)
+	 * @param newStart start of the hunk in the new sequence
+	 * @param newEnd   end of the hunk in the new sequence (equal to newStart for a deletion)
+	 */
+	public void hunk(EditType type, int oldStart, int oldEnd, int newStart, int newEnd);
+}
@@ -0,0 +1,71 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.EnumSet;
+
+/**
+ * A feature extractor computes one or more features of a snapshot.
+ * Extractors are registered with a {@link FeatureExtractionEngine},
+ * which calls all of them during a single pass over the token
+ * stream and a single traversal of the parse tree.
+ * Extractors may keep per-snapshot state in fields, since an engine
+ * processes one snapshot at a time.
+ */
+public interface IFeatureExtractor {
+	/**
+	 * Add the features computed by this extractor to the schema.
+	 * The extractor should remember the indices of its features.
+	 *
+	 * @param schema the schema
+	 */
+	public void addFeatures(FeatureSchema schema);
+
+	/**
+	 * @return true if {@link #visitToken(Token, FeatureVector)} should be called
+	 */
+	public default boolean wantsTokens() {
+		return false;
+	}
+
+	/**
+	 * @return the types of node for which {@link #enterNode(Node, Node, int, FeatureVector)}
+	 *         and {@link #exitNode(Node, Node, int, FeatureVector)} should be called
+	 */
+	public default EnumSet<NodeType> getNodeTypes() {
+		return EnumSet.noneOf(NodeType.class);
+	}
+
+	/**
+	 * Called before a snapshot is processed.
+	 */
+	public default void startSnapshot(TokenSequence seq, FeatureVector features) {
+	}
+
+	/**
+	 * Called for each token, in order.
+	 */
+	public default void visitToken(Token token, FeatureVector features) {
+	}
+
+	/**
+	 * Called when the traversal reaches a node, before its children.
+	 *
+	 * @param node     the node
+	 * @param parent   the parent of the node (null for the root)
+	 * @param depth    depth of the node (0 for the root)
+	 * @param features the feature vector
+	 */
+	public default void enterNode(Node node, Node parent, int depth, FeatureVector features) {
+	}
+
+	/**
+	 * Called when the traversal leaves a node, after its children.
+	 */
+	public default void exitNode(Node node, Node parent, int depth, FeatureVector features) {
+	}
+
+	/**
+	 * Called after a snapshot has been processed.
+	 */
+	public default void finishSnapshot(FeatureVector features) {
+	}
+}
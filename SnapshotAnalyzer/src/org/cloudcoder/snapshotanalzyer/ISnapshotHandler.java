@@ -0,0 +1,19 @@
+package org.cloudcoder.snapshotanalzyer;
+
+/**
+ * Receives the snapshots analyzed by an {@link IngestionPipeline}.
+ * The handler is called from the pipeline's worker threads, so it
+ * must be thread-safe.
+ */
+public interface ISnapshotHandler {
+	/**
+	 * Called when a snapshot has been lexed and parsed and its features
+	 * extracted.  The arguments are only valid until the handler returns.
+	 *
+	 * @param snapshot the snapshot
+	 * @param seq      the snapshot's tokens
+	 * @param unit     the snapshot's parse tree
+	 * @param features the snapshot's features
+	 */
+	public void snapshotAnalyzed(Snapshot snapshot, TokenSequence seq, Node unit, FeatureVector features);
+}
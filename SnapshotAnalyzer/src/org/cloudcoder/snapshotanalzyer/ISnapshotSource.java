@@ -0,0 +1,15 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface ISnapshotSource extends Closeable {
+	/**
+	 * Read the next snapshot.  The returned snapshot (and its data buffer)
+	 * is only valid until the next call to readNext().
+	 *
+	 * @return the next snapshot, or null if there are no more snapshots
+	 * @throws IOException
+	 */
+	public Snapshot readNext() throws IOException;
+}
@@ -0,0 +1,21 @@
+package org.cloudcoder.snapshotanalzyer;
+
+/**
+ * Receives the results of a {@link SubmissionStreamProcessor}.
+ * The handler is called from the processor's worker threads, so it must
+ * be thread-safe; calls for the snapshots of any one submission are
+ * made by one thread, in order.
+ */
+public interface ISubmissionDeltaHandler {
+	/**
+	 * Called when a snapshot has been processed.  The states are only
+	 * valid until the handler returns.
+	 *
+	 * @param previous the state of the submission's previous snapshot,
+	 *                 or null if this is the submission's first snapshot
+	 * @param current  the state of the snapshot
+	 * @param delta    the current features minus the previous features
+	 *                 (or the current features, for the first snapshot)
+	 */
+	public void snapshotProcessed(SubmissionState previous, SubmissionState current, FeatureVector delta);
+}
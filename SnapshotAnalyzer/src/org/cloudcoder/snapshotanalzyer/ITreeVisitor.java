@@ -0,0 +1,24 @@
+package org.cloudcoder.snapshotanalzyer;
+
+/**
+ * Callbacks for a {@link TreeWalker}.
+ */
+public interface ITreeVisitor {
+	/**
+	 * Called when the walk reaches a node, before its children.
+	 *
+	 * @param node  the node
+	 * @param depth the depth of the node (0 for the root)
+	 * @return true if the node's children should be visited, false to skip them
+	 */
+	public boolean enter(Node node, int depth);
+
+	/**
+	 * Called when the walk leaves a node, after its children
+	 * (or immediately after {@link #enter(Node, int)} if the children were skipped.)
+	 *
+	 * @param node  the node
+	 * @param depth the depth of the node (0 for the root)
+	 */
+	public void exit(Node node, int depth);
+}
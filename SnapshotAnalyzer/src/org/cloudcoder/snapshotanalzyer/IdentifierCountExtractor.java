@@ -0,0 +1,51 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the occurrences of each of a set of identifiers,
+ * as features named "ident.<i>name</i>".
+ * Note that the lexer treats keywords it doesn't know about
+ * (such as <code>return</code>) as identifiers, so they can be
+ * counted this way too.
+ */
+public class IdentifierCountExtractor implements IFeatureExtractor {
+	private final Map<String, Integer> indices;
+
+	public IdentifierCountExtractor() {
+		this.indices = new HashMap<>();
+	}
+
+	/**
+	 * Add an identifier.  All identifiers must be added before the
+	 * extractor is added to an engine.
+	 *
+	 * @param name the identifier
+	 */
+	public void addIdentifier(String name) {
+		indices.put(name, -1);
+	}
+
+	@Override
+	public void addFeatures(FeatureSchema schema) {
+		for (Map.Entry<String, Integer> entry : indices.entrySet()) {
+			entry.setValue(schema.addFeature("ident." + entry.getKey()));
+		}
+	}
+
+	@Override
+	public boolean wantsTokens() {
+		return true;
+	}
+
+	@Override
+	public void visitToken(Token token, FeatureVector features) {
+		if (token.getTokenType() == TokenType.IDENT) {
+			Integer index = indices.get(token.getLexeme());
+			if (index != null) {
+				features.increment(index);
+			}
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Counts if/else chains (if statements with an else part which are not
+ * themselves the else part of another if statement), and computes the
+ * length of the longest chain (the number of conditions tested).
+ */
+public class IfElseChainExtractor implements IFeatureExtractor {
+	private int chainsIndex, maxLengthIndex;
+
+	@Override
+	public void addFeatures(FeatureSchema schema) {
+		chainsIndex = schema.addFeature("if_else_chains");
+		maxLengthIndex = schema.addFeature("max_if_else_chain_length");
+	}
+
+	@Override
+	public EnumSet<NodeType> getNodeTypes() {
+		return EnumSet.of(NodeType.IF_STATEMENT);
+	}
+
+	@Override
+	public void enterNode(Node node, Node parent, int depth, FeatureVector features) {
+		if (getElse(node) == null || (parent != null && getElse(parent) == node)) {
+			// Not the head of an if/else chain
+			return;
+		}
+		features.increment(chainsIndex);
+		int length = 1;
+		for (Node n = getElse(node); n != null && n.getNodeType() == NodeType.IF_STATEMENT; n = getElse(n)) {
+			length++;
+		}
+		features.max(maxLengthIndex, length);
+	}
+
+	// The children of an if statement are the condition,
+	// the body, and (optionally) the else part
+	private static Node getElse(Node node) {
+		if (node.getNodeType() != NodeType.IF_STATEMENT) {
+			return null;
+		}
+		List<Node> children = node.getChildren();
+		return children.size() > 2 ? children.get(2) : null;
+	}
+}
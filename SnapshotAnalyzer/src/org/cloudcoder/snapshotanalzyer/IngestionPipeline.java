@@ -0,0 +1,323 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Analysis pipeline which separates I/O-bound reading of snapshots from
+ * CPU-bound lexing and parsing.  Snapshots are read by virtual threads
+ * (one per input source, and one per file of an input directory) into a
+ * bounded queue, which is drained by a fixed pool of platform threads,
+ * one per core by default.  Each worker lexes and parses the snapshot,
+ * extracts its features, and passes the results to an {@link ISnapshotHandler}.
+ *
+ * When the queue is full, readers block until a worker takes a snapshot.
+ * The pipeline keeps counts of the time readers spend blocked and workers
+ * spend idle, and the maximum queue depth, so it can be seen which stage
+ * limits throughput.
+ */
+public class IngestionPipeline {
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+	public static final int DEFAULT_MAX_CONCURRENT_READS = 256;
+
+	// Sentinel marking the end of the snapshots, one per worker
+	private static final Snapshot END = new Snapshot();
+
+	private final int numWorkers;
+	private final BlockingQueue<Snapshot> queue;
+	private final Semaphore reads;
+	private final ISnapshotHandler handler;
+	private final AtomicReference<Throwable> error;
+
+	private final AtomicLong numRead;
+	private final AtomicLong numAnalyzed;
+	private final AtomicLong numErrors;
+	private final AtomicLong readerBlockedNanos;
+	private final AtomicLong workerIdleNanos;
+	private final AtomicInteger maxQueueDepth;
+
+	public IngestionPipeline(ISnapshotHandler handler) {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_CONCURRENT_READS, handler);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numWorkers         number of platform threads lexing and parsing
+	 * @param queueCapacity      maximum number of snapshots read ahead of the workers
+	 * @param maxConcurrentReads maximum number of files read at the same time
+	 * @param handler            handler to receive the analyzed snapshots
+	 */
+	public IngestionPipeline(int numWorkers, int queueCapacity, int maxConcurrentReads, ISnapshotHandler handler) {
+		if (numWorkers < 1 || queueCapacity < 1 || maxConcurrentReads < 1) {
+			throw new IllegalArgumentException("numWorkers, queueCapacity and maxConcurrentReads must be at least 1");
+		}
+		this.numWorkers = numWorkers;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.reads = new Semaphore(maxConcurrentReads);
+		this.handler = handler;
+		this.error = new AtomicReference<>();
+		this.numRead = new AtomicLong();
+		this.numAnalyzed = new AtomicLong();
+		this.numErrors = new AtomicLong();
+		this.readerBlockedNanos = new AtomicLong();
+		this.workerIdleNanos = new AtomicLong();
+		this.maxQueueDepth = new AtomicInteger();
+	}
+
+	/**
+	 * Read and analyze all snapshots from given inputs.  Each input is
+	 * a JDBC URL, an archive (see {@link ArchiveSnapshotSource}), a directory
+	 * (every regular file below it is a snapshot), or a single snapshot file.
+	 * Returns when all of the snapshots have been analyzed.
+	 *
+	 * @param inputs the inputs
+	 * @throws IOException
+	 */
+	public void run(List<String> inputs) throws IOException {
+		List<Thread> workers = new ArrayList<>();
+		for (int i = 0; i < numWorkers; i++) {
+			Thread thread = new Thread(this::work, "ingestion-worker-" + i);
+			thread.setDaemon(true);
+			thread.start();
+			workers.add(thread);
+		}
+
+		try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (String input : inputs) {
+				readers.submit(() -> read(input));
+			}
+		} finally {
+			try {
+				for (int i = 0; i < numWorkers; i++) {
+					queue.put(END);
+				}
+				for (Thread thread : workers) {
+					thread.join();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Thread thread : workers) {
+					thread.interrupt();
+				}
+				throw new IOException("Interrupted waiting for workers", e);
+			}
+		}
+
+		Throwable t = error.get();
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t != null) {
+			throw new IOException("Error reading snapshots", t);
+		}
+	}
+
+	public long getNumRead() {
+		return numRead.get();
+	}
+
+	public long getNumAnalyzed() {
+		return numAnalyzed.get();
+	}
+
+	public long getNumErrors() {
+		return numErrors.get();
+	}
+
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * @return total time readers have spent waiting for room in the queue,
+	 *         summed over all readers
+	 *         (high when parsing is the bottleneck)
+	 */
+	public long getReaderBlockedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(readerBlockedNanos.get());
+	}
+
+	/**
+	 * @return total time workers have spent waiting for snapshots
+	 *         (high when reading is the bottleneck)
+	 */
+	public long getWorkerIdleMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(workerIdleNanos.get());
+	}
+
+	private void read(String input) {
+		try {
+			File file = new File(input);
+			if (input.startsWith("jdbc:")) {
+				try (Connection conn = DriverManager.getConnection(input);
+						JdbcSnapshotSource source = new JdbcSnapshotSource(conn)) {
+					readAll(source);
+				}
+			} else if (file.isDirectory()) {
+				// Read the files concurrently: the semaphore limits
+				// the number of open files
+				try (ExecutorService files = Executors.newVirtualThreadPerTaskExecutor();
+						Stream<Path> paths = Files.walk(file.toPath())) {
+					paths.filter(Files::isRegularFile).forEach(path -> files.submit(() -> readFile(path)));
+				}
+			} else if (ArchiveSnapshotSource.isArchive(file.getName())) {
+				try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(file)) {
+					readAll(source);
+				}
+			} else {
+				readFile(file.toPath());
+			}
+		} catch (InterruptedException | IOException | SQLException | RuntimeException e) {
+			error.compareAndSet(null, e);
+		}
+	}
+
+	private void readAll(ISnapshotSource source) throws IOException, InterruptedException {
+		Snapshot snapshot;
+		while ((snapshot = source.readNext()) != null) {
+			// The source's buffer is recycled, so queue a copy
+			Snapshot copy = new Snapshot();
+			copy.setName(snapshot.getName());
+			copy.setSubmissionId(snapshot.getSubmissionId());
+			copy.setTimestamp(snapshot.getTimestamp());
+			copy.setData(snapshot.getData(), 0, snapshot.getLength());
+			put(copy);
+		}
+	}
+
+	private void readFile(Path path) {
+		try {
+			reads.acquire();
+			try {
+				Snapshot snapshot = new Snapshot();
+				snapshot.setName(path.toString());
+				byte[] data = Files.readAllBytes(path);
+				snapshot.setData(data, 0, data.length);
+				put(snapshot);
+			} finally {
+				reads.release();
+			}
+		} catch (InterruptedException | IOException | RuntimeException e) {
+			error.compareAndSet(null, e);
+		}
+	}
+
+	private void put(Snapshot snapshot) throws InterruptedException {
+		numRead.incrementAndGet();
+		if (!queue.offer(snapshot)) {
+			long start = System.nanoTime();
+			queue.put(snapshot);
+			readerBlockedNanos.addAndGet(System.nanoTime() - start);
+		}
+		maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+	}
+
+	private void work() {
+		FeatureExtractionEngine engine = FeatureExtractionEngine.createStandard();
+		FeatureVector features = engine.createFeatureVector();
+		try {
+			while (true) {
+				Snapshot snapshot = queue.poll();
+				if (snapshot == null) {
+					long start = System.nanoTime();
+					snapshot = queue.take();
+					workerIdleNanos.addAndGet(System.nanoTime() - start);
+				}
+				if (snapshot == END) {
+					break;
+				}
+				try (Reader r = snapshot.createReader()) {
+					TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+					Node unit = new CParser(seq).parse();
+					engine.extract(seq, unit, features);
+					handler.snapshotAnalyzed(snapshot, seq, unit, features);
+					numAnalyzed.incrementAndGet();
+				} catch (LexerException | ParserException e) {
+					numErrors.incrementAndGet();
+				} catch (IOException | RuntimeException e) {
+					// Keep draining the queue, so the readers don't block
+					error.compareAndSet(null, e);
+				}
+			}
+		} catch (InterruptedException e) {
+			// Pipeline is being shut down
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.err.println("Usage: IngestionPipeline <output file> <archive, directory, file, or JDBC url>...");
+			System.exit(1);
+		}
+		FeatureExtractionEngine engine = FeatureExtractionEngine.createStandard();
+		String[] columnNames = FeatureColumnWriter.getColumnNames(BatchAnalyzer.KEY_COLUMNS, engine.getSchema());
+		try (FeatureColumnWriter writer = new FeatureColumnWriter(new File(args[0]), columnNames)) {
+			long[] row = new long[1];
+			IngestionPipeline pipeline = new IngestionPipeline((snapshot, seq, unit, features) -> {
+				synchronized (writer) {
+					try {
+						writer.set(0, row[0]++);
+						writer.set(1, snapshot.getSubmissionId());
+						writer.set(2, snapshot.getTimestamp());
+						writer.set(3, 1);
+						writer.set(BatchAnalyzer.KEY_COLUMNS.length, features);
+						writer.endRow();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}
+			});
+
+			// Report progress and queue depth once a second
+			Thread monitor = new Thread(() -> {
+				try {
+					while (true) {
+						Thread.sleep(1000L);
+						System.err.println(pipeline.getNumAnalyzed() + " analyzed, queue depth " + pipeline.getQueueDepth());
+					}
+				} catch (InterruptedException e) {
+					// Done
+				}
+			}, "ingestion-monitor");
+			monitor.setDaemon(true);
+			monitor.start();
+
+			long start = System.nanoTime();
+			try {
+				pipeline.run(Arrays.asList(args).subList(1, args.length));
+			} finally {
+				monitor.interrupt();
+			}
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			System.out.println(pipeline.getNumAnalyzed() + " snapshots analyzed, " + pipeline.getNumErrors() + " could not be parsed, in " + millis + " ms");
+			System.out.println("Max queue depth " + pipeline.getMaxQueueDepth() + ", readers blocked " + pipeline.getReaderBlockedMillis()
+					+ " ms, workers idle " + pipeline.getWorkerIdleMillis() + " ms");
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * Snapshot source which streams snapshots out of a relational database
+ * using a forward-only, read-only cursor.  Rows are fetched from the
+ * database in batches of a configurable size, and are read ahead of
+ * the consumer on a separate thread (up to the prefetch limit).
+ *
+ * The query must return three columns, in this order: the submission id,
+ * the snapshot timestamp (a number, a SQL or java.time timestamp, or text
+ * such as "yyyy-mm-dd hh:mm:ss"), and the snapshot text (a character or
+ * binary column).  It should order the rows by submission id and then by
+ * timestamp, so that the snapshots of each submission are contiguous and
+ * in chronological order.
+ */
+public class JdbcSnapshotSource extends PrefetchingSnapshotSource {
+	public static final String DEFAULT_QUERY =
+			"select submission_id, snapshot_time, snapshot_text from snapshots"
+			+ " order by submission_id, snapshot_time";
+	public static final int DEFAULT_FETCH_SIZE = 256;
+
+	private final Connection conn;
+	private final String query;
+	private final int fetchSize;
+	private boolean origAutoCommit, autoCommitChanged;
+	private Statement stmt;
+	private ResultSet resultSet;
+	private boolean binaryText;
+
+	public JdbcSnapshotSource(Connection conn) {
+		this(conn, DEFAULT_QUERY, DEFAULT_FETCH_SIZE, DEFAULT_PREFETCH);
+	}
+
+	/**
+	 * Constructor.  Note that the query is executed on the prefetching thread,
+	 * so the connection should not be used by anything else until the
+	 * source is closed.
+	 *
+	 * @param conn      the database connection
+	 * @param query     the query returning (submission id, timestamp, text) rows
+	 * @param fetchSize number of rows to fetch from the database at a time
+	 * @param prefetch  maximum number of snapshots to read ahead of the consumer
+	 */
+	public JdbcSnapshotSource(Connection conn, String query, int fetchSize, int prefetch) {
+		super("JDBC snapshots", prefetch);
+		this.conn = conn;
+		this.query = query;
+		this.fetchSize = fetchSize;
+	}
+
+	@Override
+	protected boolean fill(Snapshot snapshot) throws IOException {
+		try {
+			if (resultSet == null) {
+				executeQuery();
+			}
+			if (!resultSet.next()) {
+				return false;
+			}
+
+			snapshot.setSubmissionId(resultSet.getLong(1));
+			snapshot.setTimestamp(getTimestamp(resultSet.getObject(2)));
+			snapshot.setName(snapshot.getSubmissionId() + "@" + snapshot.getTimestamp());
+			if (binaryText) {
+				try (InputStream in = resultSet.getBinaryStream(3)) {
+					if (in != null) {
+						snapshot.readFrom(in, -1);
+					} else {
+						snapshot.setData(new byte[0], 0, 0);
+					}
+				}
+			} else {
+				String text = resultSet.getString(3);
+				byte[] bytes = (text != null) ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+				snapshot.setData(bytes, 0, bytes.length);
+			}
+			return true;
+		} catch (SQLException e) {
+			throw new IOException("Error reading snapshots from database", e);
+		}
+	}
+
+	private void executeQuery() throws SQLException {
+		// Some drivers (e.g., PostgreSQL) only use a cursor, rather than
+		// reading the entire result set into memory, if auto-commit is off
+		origAutoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		autoCommitChanged = true;
+
+		stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		stmt.setFetchSize(fetchSize);
+		resultSet = stmt.executeQuery(query);
+		resultSet.setFetchSize(fetchSize);
+
+		switch (resultSet.getMetaData().getColumnType(3)) {
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			binaryText = true;
+			break;
+		default:
+			binaryText = false;
+			break;
+		}
+	}
+
+	private static long getTimestamp(Object value) throws SQLException {
+		if (value instanceof java.util.Date) {
+			return ((java.util.Date) value).getTime();
+		} else if (value instanceof Number) {
+			return ((Number) value).longValue();
+		} else if (value instanceof OffsetDateTime) {
+			// E.g., H2's TIMESTAMP WITH TIME ZONE
+			return ((OffsetDateTime) value).toInstant().toEpochMilli();
+		} else if (value instanceof ZonedDateTime) {
+			return ((ZonedDateTime) value).toInstant().toEpochMilli();
+		} else if (value instanceof Instant) {
+			return ((Instant) value).toEpochMilli();
+		} else if (value instanceof LocalDateTime) {
+			// In the local time zone, as for ResultSet.getTimestamp
+			return Timestamp.valueOf((LocalDateTime) value).getTime();
+		} else if (value instanceof String) {
+			// E.g., SQLite, which stores timestamps as text
+			return parseTimestamp(((String) value).trim());
+		} else if (value == null) {
+			return 0L;
+		} else {
+			throw new SQLException("Unsupported timestamp column type: " + value.getClass().getName());
+		}
+	}
+
+	private static long parseTimestamp(String value) throws SQLException {
+		try {
+			if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+				return Long.parseLong(value);
+			}
+			try {
+				// "yyyy-mm-dd hh:mm:ss[.fff]", or ISO 8601 without a zone,
+				// in the local time zone (as for ResultSet.getTimestamp)
+				return Timestamp.valueOf(value.replace('T', ' ')).getTime();
+			} catch (IllegalArgumentException e) {
+				// ISO 8601 with a zone or offset
+				return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+			}
+		} catch (NumberFormatException | DateTimeParseException e) {
+			throw new SQLException("Invalid timestamp: " + value, e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The statement must not be closed (and the transaction must not be
+		// committed) while the reader thread is using it, so stop the
+		// reader thread first
+		try {
+			stopReader();
+		} finally {
+			closeSource();
+		}
+	}
+
+	@Override
+	protected void closeSource() throws IOException {
+		if (!autoCommitChanged) {
+			return;
+		}
+		autoCommitChanged = false;
+		try {
+			// Closing the statement also closes its result set
+			if (stmt != null) {
+				stmt.close();
+				stmt = null;
+			}
+			conn.commit();
+			conn.setAutoCommit(origAutoCommit);
+		} catch (SQLException e) {
+			throw new IOException("Error closing snapshot query", e);
+		}
+	}
+
+	public static void main(String[] args) throws IOException, SQLException {
+		// Lex and parse every snapshot returned by the query,
+		// printing the number of snapshots per submission
+		if (args.length < 1) {
+			System.err.println("Usage: JdbcSnapshotSource <jdbc url> [<query>]");
+			System.exit(1);
+		}
+		String query = args.length > 1 ? args[1] : DEFAULT_QUERY;
+		try (Connection conn = DriverManager.getConnection(args[0]);
+				JdbcSnapshotSource source = new JdbcSnapshotSource(conn, query, DEFAULT_FETCH_SIZE, DEFAULT_PREFETCH)) {
+			long submissionId = -1L;
+			int count = 0, errors = 0;
+			Snapshot snapshot;
+			while ((snapshot = source.readNext()) != null) {
+				if (snapshot.getSubmissionId() != submissionId) {
+					if (count > 0) {
+						System.out.println(submissionId + ": " + count + " snapshots, " + errors + " errors");
+					}
+					submissionId = snapshot.getSubmissionId();
+					count = errors = 0;
+				}
+				count++;
+				try (Reader r = snapshot.createReader()) {
+					List<Token> tokens = LexerUtil.readAll(new CLexer(r));
+					new CParser(new TokenSequence(tokens)).parse();
+				} catch (LexerException | ParserException e) {
+					errors++;
+				}
+			}
+			if (count > 0) {
+				System.out.println(submissionId + ": " + count + " snapshots, " + errors + " errors");
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.IOException;
+
+/**
+ * Writes a parse tree as JSON.  Each node is an object with
+ * "type", "start", "end", "lexeme" (if the node has a start position),
+ * and "children" (if the node has children) properties.
+ */
+public class JsonTreeWriter extends TreeWriter {
+	public JsonTreeWriter(Appendable out, TokenSequence seq) {
+		super(out, seq);
+	}
+
+	@Override
+	protected void startNode(Node node, int depth) throws IOException {
+		if (depth > 0 && !isFirstChild(depth)) {
+			out.append(',');
+		}
+		out.append("{\"type\":\"").append(node.getNodeType().name());
+		out.append("\",\"start\":");
+		appendInt(node.getStartPos());
+		out.append(",\"end\":");
+		appendInt(node.getEndPos());
+		String lexeme = getLexeme(node);
+		if (lexeme != null) {
+			out.append(",\"lexeme\":");
+			appendQuoted(lexeme);
+		}
+		if (!node.getChildren().isEmpty()) {
+			out.append(",\"children\":[");
+		}
+	}
+
+	@Override
+	protected void endNode(Node node, int depth) throws IOException {
+		if (!node.getChildren().isEmpty()) {
+			out.append(']');
+		}
+		out.append('}');
+	}
+}
@@ -0,0 +1,39 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.EnumSet;
+
+/**
+ * Computes the number of loops and the maximum loop nesting depth.
+ */
+public class LoopNestingExtractor implements IFeatureExtractor {
+	private int loopsIndex, maxNestingIndex;
+	private int nesting;
+
+	@Override
+	public void addFeatures(FeatureSchema schema) {
+		loopsIndex = schema.addFeature("loops");
+		maxNestingIndex = schema.addFeature("max_loop_nesting");
+	}
+
+	@Override
+	public EnumSet<NodeType> getNodeTypes() {
+		return EnumSet.of(NodeType.FOR_STATEMENT, NodeType.WHILE_STATEMENT, NodeType.DO_WHILE_STATEMENT);
+	}
+
+	@Override
+	public void startSnapshot(TokenSequence seq, FeatureVector features) {
+		nesting = 0;
+	}
+
+	@Override
+	public void enterNode(Node node, Node parent, int depth, FeatureVector features) {
+		nesting++;
+		features.increment(loopsIndex);
+		features.max(maxNestingIndex, nesting);
+	}
+
+	@Override
+	public void exitNode(Node node, Node parent, int depth, FeatureVector features) {
+		nesting--;
+	}
+}
@@ -0,0 +1,317 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Locality-sensitive hashing index of MinHash signatures (see {@link MinHasher}),
+ * for finding similar snapshots without comparing every pair.
+ *
+ * Each signature is divided into bands of rows; two snapshots are
+ * candidates if all rows of at least one band agree.  For each band, the
+ * index keeps a sorted array of (band hash, snapshot id) pairs, so the
+ * snapshots sharing a bucket with a query are found by binary search.
+ * Candidates are then ranked by their estimated similarity.  Empty
+ * snapshots (whose signatures are all alike) are left out of the band
+ * arrays, and are never similar to anything.
+ *
+ * The band arrays are built in parallel, one band per task.  Only the
+ * names and signatures are stored in the index file: the band arrays are
+ * rebuilt when it is read.
+ */
+public class LshIndex {
+	private static final int MAGIC = 0x4c534849; // "LSHI"
+	private static final int VERSION = 1;
+
+	public static final int DEFAULT_BANDS = 32;
+
+	private final MinHasher hasher;
+	private final int numHashes;
+	private final int bands, rows;
+	private final List<String> names;
+	private int[] signatures; // numHashes elements per snapshot
+	private long[][] bandEntries; // per band, sorted (hash << 32 | id)
+
+	public LshIndex(MinHasher hasher) {
+		this(hasher, DEFAULT_BANDS);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param hasher the MinHasher used to compute the signatures
+	 * @param bands  the number of bands: must divide the number of hashes
+	 */
+	public LshIndex(MinHasher hasher, int bands) {
+		if (bands < 1 || hasher.getNumHashes() % bands != 0) {
+			throw new IllegalArgumentException("Number of bands must divide number of hashes");
+		}
+		this.hasher = hasher;
+		this.numHashes = hasher.getNumHashes();
+		this.bands = bands;
+		this.rows = numHashes / bands;
+		this.names = new ArrayList<>();
+		this.signatures = new int[numHashes * 16];
+	}
+
+	public MinHasher getHasher() {
+		return hasher;
+	}
+
+	/**
+	 * Add a snapshot.  {@link #build()} must be called before
+	 * the snapshot can be found by queries.
+	 *
+	 * @param name      the snapshot's name
+	 * @param signature the snapshot's signature
+	 * @return the snapshot's id
+	 */
+	public int add(String name, int[] signature) {
+		int id = names.size();
+		if ((id + 1) * numHashes > signatures.length) {
+			signatures = Arrays.copyOf(signatures, signatures.length * 2);
+		}
+		System.arraycopy(signature, 0, signatures, id * numHashes, numHashes);
+		names.add(name);
+		bandEntries = null;
+		return id;
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public String getName(int id) {
+		return names.get(id);
+	}
+
+	/**
+	 * @return the id of the snapshot with given name, or -1 if there is none
+	 */
+	public int indexOf(String name) {
+		return names.indexOf(name);
+	}
+
+	/**
+	 * Build the band arrays (in parallel).
+	 */
+	public void build() {
+		int[] ids = IntStream.range(0, names.size())
+				.filter(id -> !MinHasher.isEmpty(signatures, id * numHashes, numHashes)).toArray();
+		long[][] entries = new long[bands][];
+		IntStream.range(0, bands).parallel().forEach(band -> {
+			long[] arr = new long[ids.length];
+			for (int i = 0; i < ids.length; i++) {
+				arr[i] = ((long) bandHash(signatures, ids[i] * numHashes, band) << 32) | ids[i];
+			}
+			Arrays.sort(arr);
+			entries[band] = arr;
+		});
+		bandEntries = entries;
+	}
+
+	/**
+	 * Find the snapshots similar to an indexed snapshot.
+	 *
+	 * @param id        the snapshot's id
+	 * @param threshold minimum estimated similarity
+	 * @return ids of the similar snapshots (not including the snapshot itself),
+	 *         in order of decreasing similarity
+	 */
+	public int[] query(int id, double threshold) {
+		return query(signatures, id * numHashes, threshold, id);
+	}
+
+	/**
+	 * Find the snapshots similar to a signature.
+	 *
+	 * @param signature the signature
+	 * @param threshold minimum estimated similarity
+	 * @return ids of the similar snapshots, in order of decreasing similarity
+	 */
+	public int[] query(int[] signature, double threshold) {
+		return query(signature, 0, threshold, -1);
+	}
+
+	/**
+	 * @return the estimated similarity of two indexed snapshots
+	 */
+	public double getSimilarity(int id1, int id2) {
+		return MinHasher.estimateSimilarity(signatures, id1 * numHashes, signatures, id2 * numHashes, numHashes);
+	}
+
+	private int[] query(int[] signature, int offset, double threshold, int exclude) {
+		if (bandEntries == null) {
+			throw new IllegalStateException("Index has not been built");
+		}
+		if (MinHasher.isEmpty(signature, offset, numHashes)) {
+			return new int[0];
+		}
+		BitSet seen = new BitSet();
+		List<long[]> results = new ArrayList<>();
+		for (int band = 0; band < bands; band++) {
+			long[] arr = bandEntries[band];
+			long key = (long) bandHash(signature, offset, band) << 32;
+			// Find the first entry with the band hash
+			int lo = 0, hi = arr.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (arr[mid] < key) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			for (int i = lo; i < arr.length && (arr[i] >>> 32) == (key >>> 32); i++) {
+				int id = (int) arr[i];
+				if (id == exclude || seen.get(id)) {
+					continue;
+				}
+				seen.set(id);
+				double sim = MinHasher.estimateSimilarity(signature, offset, signatures, id * numHashes, numHashes);
+				if (sim >= threshold) {
+					results.add(new long[] { Double.doubleToLongBits(sim), id });
+				}
+			}
+		}
+		// Similarities are non-negative, so their bits order like the values
+		results.sort((a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+		int[] ids = new int[results.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = (int) results.get(i)[1];
+		}
+		return ids;
+	}
+
+	private int bandHash(int[] signature, int offset, int band) {
+		int h = 0x811c9dc5 ^ band;
+		int start = offset + band * rows;
+		for (int i = 0; i < rows; i++) {
+			h = (h ^ signature[start + i]) * 0x01000193;
+			h ^= h >>> 15;
+		}
+		return h;
+	}
+
+	public void write(File file) throws IOException {
+		VarIntWriter out = new VarIntWriter(1 << 16);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUnsigned(numHashes);
+		out.writeUnsigned(hasher.getShingleSize());
+		out.writeLong(hasher.getSeed());
+		out.writeUnsigned(bands);
+		out.writeUnsigned(names.size());
+		for (int id = 0; id < names.size(); id++) {
+			byte[] bytes = names.get(id).getBytes(StandardCharsets.UTF_8);
+			out.writeUnsigned(bytes.length);
+			out.writeBytes(bytes, 0, bytes.length);
+			for (int i = 0; i < numHashes; i++) {
+				out.writeUnsigned(signatures[id * numHashes + i]);
+			}
+		}
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+			out.writeTo(os);
+		}
+	}
+
+	public static LshIndex read(File file) throws IOException {
+		ByteBuffer buf;
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new IOException("Not an LSH index: " + file);
+		}
+		int numHashes = VarInt.readUnsigned(buf);
+		int shingleSize = VarInt.readUnsigned(buf);
+		long seed = buf.getLong();
+		int bands = VarInt.readUnsigned(buf);
+		LshIndex index = new LshIndex(new MinHasher(numHashes, shingleSize, seed), bands);
+		int n = VarInt.readUnsigned(buf);
+		int[] signature = new int[numHashes];
+		for (int id = 0; id < n; id++) {
+			byte[] bytes = new byte[VarInt.readUnsigned(buf)];
+			buf.get(bytes);
+			for (int i = 0; i < numHashes; i++) {
+				signature[i] = VarInt.readUnsigned(buf);
+			}
+			index.add(new String(bytes, StandardCharsets.UTF_8), signature);
+		}
+		index.build();
+		return index;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("build")) {
+			// Snapshots are read in batches, and the signatures of each
+			// batch are computed in parallel
+			final int batchSize = 4096;
+			MinHasher hasher = new MinHasher();
+			LshIndex index = new LshIndex(hasher);
+			List<String> batchNames = new ArrayList<>(), batchTexts = new ArrayList<>();
+			for (int a = 2; a < args.length; a++) {
+				try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(args[a]))) {
+					Snapshot snapshot;
+					do {
+						snapshot = source.readNext();
+						if (snapshot != null) {
+							batchNames.add(snapshot.getName());
+							batchTexts.add(new String(snapshot.getData(), 0, snapshot.getLength(), StandardCharsets.UTF_8));
+						}
+						if (batchNames.size() == batchSize || (snapshot == null && !batchNames.isEmpty())) {
+							int[][] sigs = new int[batchNames.size()][];
+							IntStream.range(0, sigs.length).parallel().forEach(i -> {
+								try {
+									TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(new StringReader(batchTexts.get(i)))));
+									sigs[i] = new int[hasher.getNumHashes()];
+									hasher.computeSignature(seq, sigs[i]);
+								} catch (IOException | LexerException e) {
+									// Snapshot is not indexed
+								}
+							});
+							for (int i = 0; i < sigs.length; i++) {
+								if (sigs[i] != null) {
+									index.add(batchNames.get(i), sigs[i]);
+								}
+							}
+							batchNames.clear();
+							batchTexts.clear();
+						}
+					} while (snapshot != null);
+				}
+			}
+			index.build();
+			index.write(new File(args[1]));
+			System.out.println(index.size() + " snapshots indexed");
+		} else if ((args.length == 3 || args.length == 4) && args[0].equals("query")) {
+			LshIndex index = read(new File(args[1]));
+			int id = index.indexOf(args[2]);
+			if (id < 0) {
+				System.err.println("No such snapshot: " + args[2]);
+				System.exit(1);
+			}
+			double threshold = args.length == 4 ? Double.parseDouble(args[3]) : 0.5;
+			for (int other : index.query(id, threshold)) {
+				System.out.println(String.format("%.3f", index.getSimilarity(id, other)) + " " + index.getName(other));
+			}
+		} else {
+			System.err.println("Usage: LshIndex build <index file> <archive>...");
+			System.err.println("       LshIndex query <index file> <snapshot name> [threshold]");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Computes MinHash signatures of snapshots, for estimating the
+ * Jaccard similarity of their sets of token n-grams ("shingles").
+ * Shingles are formed from token types only, so identifiers and
+ * literals are normalized: two snapshots which differ only in their
+ * choice of names and constants have the same shingles.
+ *
+ * A MinHasher is immutable, and may be used by multiple threads.
+ * Signatures are only comparable if they were computed by MinHashers
+ * with the same parameters.
+ */
+public class MinHasher {
+	public static final int DEFAULT_NUM_HASHES = 128;
+	public static final int DEFAULT_SHINGLE_SIZE = 5;
+	public static final long DEFAULT_SEED = 0x5eed5eedL;
+
+	private static final int TYPE_BITS = 32 - Integer.numberOfLeadingZeros(TokenType.values().length);
+
+	private final int numHashes;
+	private final int shingleSize;
+	private final long seed;
+	private final long[] multipliers, addends;
+
+	public MinHasher() {
+		this(DEFAULT_NUM_HASHES, DEFAULT_SHINGLE_SIZE, DEFAULT_SEED);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numHashes   the number of hash functions (signature length)
+	 * @param shingleSize the number of tokens in each shingle
+	 * @param seed        seed for choosing the hash functions
+	 */
+	public MinHasher(int numHashes, int shingleSize, long seed) {
+		if (shingleSize < 1 || shingleSize * TYPE_BITS > 63) {
+			throw new IllegalArgumentException("Invalid shingle size " + shingleSize);
+		}
+		this.numHashes = numHashes;
+		this.shingleSize = shingleSize;
+		this.seed = seed;
+		this.multipliers = new long[numHashes];
+		this.addends = new long[numHashes];
+		Random rand = new Random(seed);
+		for (int i = 0; i < numHashes; i++) {
+			multipliers[i] = rand.nextLong() | 1L;
+			addends[i] = rand.nextLong();
+		}
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	public int getShingleSize() {
+		return shingleSize;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Compute the signature of a token sequence.  A sequence with fewer
+	 * tokens than the shingle size has a single, shorter shingle (which
+	 * never equals a full-size shingle).  An empty sequence has no
+	 * shingles: its signature is all {@link Integer#MAX_VALUE}, and
+	 * should not be compared with other signatures.
+	 *
+	 * @param seq       the tokens
+	 * @param signature array in which to store the signature (length {@link #getNumHashes()})
+	 * @return false if the sequence is empty
+	 */
+	public boolean computeSignature(TokenSequence seq, int[] signature) {
+		// Pack the token types of each shingle into a long, and remove duplicates
+		int n = seq.size();
+		long[] shingles;
+		if (n > 0 && n < shingleSize) {
+			// Offset the types by one, so sequences of different lengths
+			// differ, and complement, so the shingle is negative
+			long packed = 0L;
+			for (int i = 0; i < n; i++) {
+				packed = (packed << TYPE_BITS) | (seq.get(i).getTokenType().ordinal() + 1);
+			}
+			shingles = new long[] { ~packed };
+		} else {
+			shingles = new long[Math.max(0, n - shingleSize + 1)];
+			long mask = (1L << (shingleSize * TYPE_BITS)) - 1;
+			long packed = 0L;
+			for (int i = 0; i < n; i++) {
+				packed = ((packed << TYPE_BITS) | seq.get(i).getTokenType().ordinal()) & mask;
+				if (i >= shingleSize - 1) {
+					shingles[i - shingleSize + 1] = packed;
+				}
+			}
+		}
+		int numShingles = shingles.length;
+		Arrays.sort(shingles);
+
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		for (int s = 0; s < numShingles; s++) {
+			if (s > 0 && shingles[s] == shingles[s - 1]) {
+				continue;
+			}
+			long x = mix(shingles[s]);
+			for (int i = 0; i < numHashes; i++) {
+				int h = (int) ((x * multipliers[i] + addends[i]) >>> 33);
+				if (h < signature[i]) {
+					signature[i] = h;
+				}
+			}
+		}
+		return numShingles > 0;
+	}
+
+	/**
+	 * @return true if the signature is that of an empty sequence
+	 */
+	public static boolean isEmpty(int[] signature, int offset, int numHashes) {
+		for (int i = 0; i < numHashes; i++) {
+			if (signature[offset + i] != Integer.MAX_VALUE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Estimate the Jaccard similarity of the shingle sets of
+	 * two snapshots from their signatures.
+	 *
+	 * @return the fraction of signature elements which agree
+	 *         (0 if either snapshot is empty)
+	 */
+	public static double estimateSimilarity(int[] a, int aOffset, int[] b, int bOffset, int numHashes) {
+		if (isEmpty(a, aOffset, numHashes) || isEmpty(b, bOffset, numHashes)) {
+			return 0.0;
+		}
+		int same = 0;
+		for (int i = 0; i < numHashes; i++) {
+			if (a[aOffset + i] == b[bOffset + i]) {
+				same++;
+			}
+		}
+		return (double) same / numHashes;
+	}
+
+	private static long mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return x;
+	}
+}
@@ -7,11 +7,14 @@ public class Node {
 	private NodeType nodeType;
 	private List<Node> children;
 	private int startPos, endPos;
+	private long structuralHash;
+	private boolean hasStructuralHash;
 	
 	public Node(NodeType nodeType) {
 		this.nodeType = nodeType;
 		this.children = new ArrayList<>();
 		this.startPos = this.endPos = -1;
+		this.hasStructuralHash = false;
 	}
 	
 	public NodeType getNodeType() {
@@ -48,4 +51,23 @@ public class Node {
 	public int getEndPos() {
 		return endPos;
 	}
+	
+	/**
+	 * Set the structural hash of this node (see {@link StructuralHasher}).
+	 */
+	public void setStructuralHash(long structuralHash) {
+		this.structuralHash = structuralHash;
+		this.hasStructuralHash = true;
+	}
+	
+	public boolean hasStructuralHash() {
+		return hasStructuralHash;
+	}
+	
+	public long getStructuralHash() {
+		if (!hasStructuralHash) {
+			throw new IllegalStateException("Structural hash has not been computed");
+		}
+		return structuralHash;
+	}
 }
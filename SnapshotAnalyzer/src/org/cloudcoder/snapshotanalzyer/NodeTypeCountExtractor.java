@@ -0,0 +1,31 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.EnumSet;
+
+/**
+ * Counts the number of nodes of each type.
+ */
+public class NodeTypeCountExtractor implements IFeatureExtractor {
+	private int base;
+
+	@Override
+	public void addFeatures(FeatureSchema schema) {
+		base = -1;
+		for (NodeType nodeType : NodeType.values()) {
+			int index = schema.addFeature("nodes." + nodeType);
+			if (base < 0) {
+				base = index;
+			}
+		}
+	}
+
+	@Override
+	public EnumSet<NodeType> getNodeTypes() {
+		return EnumSet.allOf(NodeType.class);
+	}
+
+	@Override
+	public void enterNode(Node node, Node parent, int depth, FeatureVector features) {
+		features.increment(base + node.getNodeType().ordinal());
+	}
+}
@@ -0,0 +1,394 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory store of the text, tokens and parse trees of many snapshots,
+ * kept outside of the Java heap in direct ByteBuffers, so that a
+ * corpus-scale store adds almost nothing to the live heap and does not
+ * lengthen garbage collection.
+ *
+ * Each snapshot is stored as one record in a slab:
+ * <ul>
+ * <li> a header of four ints: the lengths of the name (bytes) and text
+ *      (chars), the number of tokens, and the length of the tree (bytes)
+ * <li> the name, as UTF-8
+ * <li> the text, as UTF-16 chars
+ * <li> the tokens, four ints each: type ordinal and lexeme length
+ *      (packed), offset, row and column
+ * <li> the tree, encoded by {@link TreeEncoder}
+ * </ul>
+ * Records are located by a directory of slab addresses, which is
+ * also off-heap.
+ *
+ * Tokens and trees are read through views: {@link #getTokenSequence(int)}
+ * creates {@link Token} objects on demand (their lexemes are taken from
+ * the stored text, and they don't have symbol ids), and
+ * {@link #getTreeReader(int)} navigates the encoded tree without creating
+ * {@link Node} objects.  The per-token accessors don't allocate at all.
+ *
+ * Snapshots are added by one thread at a time.  Once added, a snapshot
+ * may be read by any number of threads, including while other snapshots
+ * are being added.
+ */
+public class OffHeapCorpusStore {
+	public static final int DEFAULT_SLAB_SIZE = 64 << 20;
+
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+	private static final int HEADER_SIZE = 16;
+	private static final int TOKEN_RECORD_SIZE = 16;
+	private static final int MAX_LEXEME_LENGTH = (1 << 24) - 1;
+	private static final int DIRECTORY_SLAB_ENTRIES = 1 << 16;
+
+	private final int slabSize;
+	private final List<ByteBuffer> slabs;
+	private final List<ByteBuffer> directory;
+	private final TreeEncoder encoder;
+	private final VarIntWriter treeBuf;
+	private int currentIndex;
+	private volatile int size;
+	private long bytesUsed;
+
+	public OffHeapCorpusStore() {
+		this(DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param slabSize size of each slab of memory (records larger than this
+	 *                 are given their own slab)
+	 */
+	public OffHeapCorpusStore(int slabSize) {
+		if (slabSize < HEADER_SIZE) {
+			throw new IllegalArgumentException("Slab size too small");
+		}
+		this.slabSize = slabSize;
+		this.slabs = new CopyOnWriteArrayList<>();
+		this.directory = new CopyOnWriteArrayList<>();
+		this.encoder = new TreeEncoder();
+		this.treeBuf = new VarIntWriter(4096);
+		this.currentIndex = -1;
+	}
+
+	/**
+	 * Lex and parse a snapshot and add it to the store.  If the snapshot
+	 * can be lexed but not parsed, it is stored without a tree.
+	 *
+	 * @param snapshot the snapshot
+	 * @return the id of the stored snapshot
+	 * @throws IOException
+	 * @throws LexerException if the snapshot can't be lexed
+	 */
+	public int add(Snapshot snapshot) throws IOException, LexerException {
+		String text = new String(snapshot.getData(), 0, snapshot.getLength(), StandardCharsets.UTF_8);
+		List<Token> tokens;
+		try (Reader r = new StringReader(text)) {
+			tokens = LexerUtil.readAll(new CLexer(r));
+		}
+		Node unit;
+		try {
+			unit = new CParser(new TokenSequence(tokens)).parse();
+		} catch (ParserException e) {
+			unit = null;
+		}
+		return add(snapshot.getName(), text, tokens, unit);
+	}
+
+	/**
+	 * Add a snapshot to the store.
+	 *
+	 * @param name   the snapshot's name
+	 * @param text   the snapshot's text
+	 * @param tokens the tokens lexed from the text
+	 * @param tree   the parse tree, or null if there is none
+	 * @return the id of the stored snapshot
+	 */
+	public synchronized int add(String name, String text, List<Token> tokens, Node tree) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		treeBuf.reset();
+		if (tree != null) {
+			encoder.encode(tree, treeBuf);
+		}
+		byte[] treeBytes = treeBuf.toByteArray();
+
+		int textStart = HEADER_SIZE + align(nameBytes.length);
+		int tokensStart = textStart + align(text.length() * 2);
+		int treeStart = tokensStart + tokens.size() * TOKEN_RECORD_SIZE;
+		int recordSize = align(treeStart + treeBytes.length);
+
+		int slabIndex = allocate(recordSize);
+		ByteBuffer slab = slabs.get(slabIndex);
+		int base = slab.position();
+		slab.putInt(base, nameBytes.length);
+		slab.putInt(base + 4, text.length());
+		slab.putInt(base + 8, tokens.size());
+		slab.putInt(base + 12, treeBytes.length);
+		slab.put(base + HEADER_SIZE, nameBytes);
+		for (int i = 0; i < text.length(); i++) {
+			slab.putChar(base + textStart + i * 2, text.charAt(i));
+		}
+		int p = base + tokensStart;
+		for (Token t : tokens) {
+			Position pos = t.getPosition();
+			int length = t.getLexeme().length();
+			if (length > MAX_LEXEME_LENGTH || !text.regionMatches(pos.getOffset(), t.getLexeme(), 0, length)) {
+				throw new IllegalArgumentException("Token at " + pos + " does not match the text");
+			}
+			slab.putInt(p, (t.getTokenType().ordinal() << 24) | length);
+			slab.putInt(p + 4, pos.getOffset());
+			slab.putInt(p + 8, pos.getRow());
+			slab.putInt(p + 12, pos.getColumn());
+			p += TOKEN_RECORD_SIZE;
+		}
+		slab.put(base + treeStart, treeBytes);
+		slab.position(base + recordSize);
+		bytesUsed += recordSize;
+
+		// Record the address of the record in the directory
+		int id = size;
+		if (id % DIRECTORY_SLAB_ENTRIES == 0) {
+			directory.add(ByteBuffer.allocateDirect(DIRECTORY_SLAB_ENTRIES * 8));
+		}
+		long address = ((long) slabIndex << 32) | base;
+		directory.get(id / DIRECTORY_SLAB_ENTRIES).putLong((id % DIRECTORY_SLAB_ENTRIES) * 8, address);
+		size = id + 1;
+		return id;
+	}
+
+	// Find a slab with room for a record, positioned at the record:
+	// returns the slab's index
+	private int allocate(int recordSize) {
+		if (recordSize > slabSize) {
+			// Large records get a slab of their own
+			slabs.add(ByteBuffer.allocateDirect(recordSize));
+			return slabs.size() - 1;
+		}
+		if (currentIndex < 0 || slabs.get(currentIndex).remaining() < recordSize) {
+			slabs.add(ByteBuffer.allocateDirect(slabSize));
+			currentIndex = slabs.size() - 1;
+		}
+		return currentIndex;
+	}
+
+	private static int align(int n) {
+		return (n + 3) & ~3;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes of off-heap memory used by records
+	 */
+	public synchronized long getBytesUsed() {
+		return bytesUsed;
+	}
+
+	/**
+	 * @return the number of bytes of off-heap memory allocated for slabs
+	 */
+	public synchronized long getBytesAllocated() {
+		long total = (long) directory.size() * DIRECTORY_SLAB_ENTRIES * 8;
+		for (ByteBuffer slab : slabs) {
+			total += slab.capacity();
+		}
+		return total;
+	}
+
+	public String getName(int id) {
+		ByteBuffer slab = slab(id);
+		int base = base(id);
+		byte[] bytes = new byte[slab.getInt(base)];
+		slab.get(base + HEADER_SIZE, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public String getText(int id) {
+		ByteBuffer slab = slab(id);
+		int base = base(id);
+		int length = slab.getInt(base + 4);
+		int textStart = base + HEADER_SIZE + align(slab.getInt(base));
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = slab.getChar(textStart + i * 2);
+		}
+		return new String(chars);
+	}
+
+	public int getNumTokens(int id) {
+		return slab(id).getInt(base(id) + 8);
+	}
+
+	public TokenType getTokenType(int id, int index) {
+		return TOKEN_TYPES[slab(id).getInt(tokenRecord(id, index)) >>> 24];
+	}
+
+	public int getTokenOffset(int id, int index) {
+		return slab(id).getInt(tokenRecord(id, index) + 4);
+	}
+
+	public int getTokenLength(int id, int index) {
+		return slab(id).getInt(tokenRecord(id, index)) & MAX_LEXEME_LENGTH;
+	}
+
+	/**
+	 * Create a token sequence over a snapshot's stored tokens.
+	 * Token objects are created as tokens are accessed.
+	 *
+	 * @param id the snapshot's id
+	 * @return the token sequence
+	 */
+	public TokenSequence getTokenSequence(int id) {
+		return new TokenSequence(new TokenList(id, getText(id)));
+	}
+
+	public boolean hasTree(int id) {
+		return slab(id).getInt(base(id) + 12) > 0;
+	}
+
+	/**
+	 * Get a cursor over a snapshot's stored parse tree.
+	 *
+	 * @param id the snapshot's id
+	 * @return the cursor, positioned at the root
+	 * @throws IllegalStateException if the snapshot has no tree
+	 */
+	public EncodedTreeReader getTreeReader(int id) {
+		if (!hasTree(id)) {
+			throw new IllegalStateException("Snapshot " + id + " has no parse tree");
+		}
+		ByteBuffer slab = slab(id).duplicate();
+		int base = base(id);
+		int treeStart = base + treeOffset(slab, base);
+		slab.limit(treeStart + slab.getInt(base + 12));
+		slab.position(treeStart);
+		try {
+			return new EncodedTreeReader(slab.slice());
+		} catch (IOException e) {
+			throw new IllegalStateException("Corrupt tree for snapshot " + id, e);
+		}
+	}
+
+	/**
+	 * Decode a snapshot's stored parse tree into Node objects.
+	 *
+	 * @param id the snapshot's id
+	 * @return the root of the tree
+	 */
+	public Node getTree(int id) {
+		return getTreeReader(id).toNode();
+	}
+
+	private static int treeOffset(ByteBuffer slab, int base) {
+		return HEADER_SIZE + align(slab.getInt(base)) + align(slab.getInt(base + 4) * 2)
+				+ slab.getInt(base + 8) * TOKEN_RECORD_SIZE;
+	}
+
+	private long address(int id) {
+		if (id < 0 || id >= size) {
+			throw new IllegalArgumentException("No snapshot with id " + id);
+		}
+		return directory.get(id / DIRECTORY_SLAB_ENTRIES).getLong((id % DIRECTORY_SLAB_ENTRIES) * 8);
+	}
+
+	private ByteBuffer slab(int id) {
+		return slabs.get((int) (address(id) >>> 32));
+	}
+
+	private int base(int id) {
+		return (int) address(id);
+	}
+
+	private int tokenRecord(int id, int index) {
+		ByteBuffer slab = slab(id);
+		int base = base(id);
+		if (index < 0 || index >= slab.getInt(base + 8)) {
+			throw new IndexOutOfBoundsException("Token index " + index);
+		}
+		return base + HEADER_SIZE + align(slab.getInt(base)) + align(slab.getInt(base + 4) * 2) + index * TOKEN_RECORD_SIZE;
+	}
+
+	// List view of a snapshot's tokens
+	private class TokenList extends AbstractList<Token> implements RandomAccess {
+		private final ByteBuffer slab;
+		private final int tokensStart;
+		private final int numTokens;
+		private final String text;
+
+		TokenList(int id, String text) {
+			this.slab = slab(id);
+			int base = base(id);
+			this.tokensStart = base + HEADER_SIZE + align(slab.getInt(base)) + align(slab.getInt(base + 4) * 2);
+			this.numTokens = slab.getInt(base + 8);
+			this.text = text;
+		}
+
+		@Override
+		public Token get(int index) {
+			if (index < 0 || index >= numTokens) {
+				throw new IndexOutOfBoundsException("Token index " + index);
+			}
+			int p = tokensStart + index * TOKEN_RECORD_SIZE;
+			int typeAndLength = slab.getInt(p);
+			int offset = slab.getInt(p + 4);
+			Position pos = new Position(slab.getInt(p + 8), slab.getInt(p + 12), offset);
+			String lexeme = text.substring(offset, offset + (typeAndLength & MAX_LEXEME_LENGTH));
+			return new Token(TOKEN_TYPES[typeAndLength >>> 24], lexeme, pos);
+		}
+
+		@Override
+		public int size() {
+			return numTokens;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: OffHeapCorpusStore <archive>...");
+			System.exit(1);
+		}
+		OffHeapCorpusStore store = new OffHeapCorpusStore();
+		long errors = 0;
+		for (String arg : args) {
+			try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(arg))) {
+				Snapshot snapshot;
+				while ((snapshot = source.readNext()) != null) {
+					try {
+						store.add(snapshot);
+					} catch (LexerException e) {
+						errors++;
+					}
+				}
+			}
+		}
+
+		// Scan the whole corpus through the views
+		long tokens = 0, nodes = 0;
+		for (int id = 0; id < store.size(); id++) {
+			tokens += store.getNumTokens(id);
+			if (store.hasTree(id)) {
+				EncodedTreeReader reader = store.getTreeReader(id);
+				do {
+					nodes++;
+				} while (reader.next(false));
+			}
+		}
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		System.out.println(store.size() + " snapshots stored (" + errors + " could not be lexed), "
+				+ tokens + " tokens, " + nodes + " nodes");
+		System.out.println((store.getBytesUsed() >> 10) + " KB used off-heap, " + (store.getBytesAllocated() >> 10)
+				+ " KB allocated; " + ((rt.totalMemory() - rt.freeMemory()) >> 10) + " KB heap in use");
+	}
+}
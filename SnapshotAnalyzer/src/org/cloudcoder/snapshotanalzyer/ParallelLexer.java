@@ -0,0 +1,185 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Lexes large inputs using multiple threads, giving the same tokens
+ * as {@link CLexer}.
+ *
+ * The text is divided into chunks at line boundaries, and the chunks are
+ * lexed in parallel, each assuming that it starts outside of any comment
+ * or literal.  The chunks are then checked in order: if a chunk whose
+ * start was correct ended cleanly (between tokens, and not in a comment),
+ * the next chunk's start was also correct.  Otherwise, the text from the
+ * start of the chunk's unfinished token or comment to the end of the next
+ * chunk is lexed again, and replaces the next chunk.  Since a line
+ * comment always ends at a chunk boundary, only block comments and
+ * literals containing newlines need repair.
+ */
+public class ParallelLexer {
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	// The result of lexing one chunk
+	private static class Chunk {
+		final int start, end;
+		final Position startPos;
+		final List<Token> tokens;
+		Exception error;
+		boolean clean;
+		Position tokenStart;
+
+		Chunk(int start, int end, Position startPos) {
+			this.start = start;
+			this.end = end;
+			this.startPos = startPos;
+			this.tokens = new ArrayList<>();
+		}
+	}
+
+	public ParallelLexer() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pool      the pool to lex the chunks in
+	 * @param chunkSize the approximate number of characters in each chunk
+	 */
+	public ParallelLexer(ForkJoinPool pool, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be at least 1");
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Lex given text.
+	 *
+	 * @param text the text
+	 * @return the tokens
+	 * @throws IOException if interrupted while waiting for the chunks
+	 * @throws LexerException if the text contains an invalid token, or ends
+	 *         within a literal
+	 */
+	public List<Token> lex(String text) throws IOException, LexerException {
+		// Divide the text into chunks which begin at the start of a line
+		List<Integer> bounds = new ArrayList<>();
+		bounds.add(0);
+		int pos = 0;
+		while (text.length() - pos > chunkSize) {
+			int nl = text.indexOf('\n', pos + chunkSize);
+			if (nl < 0 || nl + 1 == text.length()) {
+				break;
+			}
+			pos = nl + 1;
+			bounds.add(pos);
+		}
+		bounds.add(text.length());
+		int numChunks = bounds.size() - 1;
+
+		Chunk[] chunks = new Chunk[numChunks];
+		try {
+			pool.submit(() -> {
+				// Count the lines before each chunk, to find its starting position
+				int[] lines = new int[numChunks];
+				IntStream.range(0, numChunks).parallel().forEach(i -> {
+					int count = 0;
+					for (int j = bounds.get(i); j < bounds.get(i + 1); j++) {
+						if (text.charAt(j) == '\n') {
+							count++;
+						}
+					}
+					lines[i] = count;
+				});
+				int row = 0;
+				for (int i = 0; i < numChunks; i++) {
+					chunks[i] = new Chunk(bounds.get(i), bounds.get(i + 1), new Position(row, 0, bounds.get(i)));
+					row += lines[i];
+				}
+				IntStream.range(0, numChunks).parallel().forEach(i -> lexChunk(text, chunks[i]));
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted lexing chunks", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Error lexing chunks", e.getCause());
+		}
+
+		// The first chunk's start is correct: check each chunk in order
+		List<Token> result = new ArrayList<>();
+		for (int i = 0; i < numChunks; i++) {
+			Chunk chunk = chunks[i];
+			boolean last = (i == numChunks - 1);
+			if (chunk.clean || last) {
+				result.addAll(chunk.tokens);
+				if (chunk.error != null) {
+					// The chunk's start was correct, so this is the error
+					// lexing the whole text would have produced
+					rethrow(chunk.error);
+				}
+			} else {
+				// The chunk ended inside a token or comment: lex from its
+				// start to the end of the next chunk, replacing the next chunk
+				result.addAll(chunk.tokens);
+				Chunk next = chunks[i + 1];
+				Chunk merged = new Chunk(chunk.tokenStart.getOffset(), next.end, chunk.tokenStart);
+				lexChunk(text, merged);
+				chunks[i + 1] = merged;
+			}
+		}
+		return result;
+	}
+
+	private static void lexChunk(String text, Chunk chunk) {
+		CLexer lexer = new CLexer(new StringReader(text.substring(chunk.start, chunk.end)), null, chunk.startPos);
+		try {
+			Token t;
+			while ((t = lexer.readNext()) != null) {
+				chunk.tokens.add(t);
+			}
+			chunk.clean = !lexer.isInBlockComment();
+		} catch (IOException | LexerException | RuntimeException e) {
+			// If the lexer stopped before the end of the chunk, the error
+			// is real (if the chunk's start is correct): otherwise the
+			// token may continue into the next chunk
+			chunk.error = e;
+			chunk.clean = !lexer.isAtEOF();
+		}
+		chunk.tokenStart = lexer.getTokenStart();
+	}
+
+	private static void rethrow(Exception e) throws IOException, LexerException {
+		if (e instanceof LexerException) {
+			throw (LexerException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		throw (IOException) e;
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		if (args.length != 1) {
+			System.err.println("Usage: ParallelLexer <file>");
+			System.exit(1);
+		}
+		String text = new String(Files.readAllBytes(new File(args[0]).toPath()), StandardCharsets.UTF_8);
+		long start = System.nanoTime();
+		List<Token> tokens = new ParallelLexer().lex(text);
+		long nanos = System.nanoTime() - start;
+		System.out.println(tokens.size() + " tokens, " + (nanos / 1000000L) + " ms");
+	}
+}
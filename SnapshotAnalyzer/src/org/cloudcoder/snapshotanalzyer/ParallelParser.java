@@ -0,0 +1,201 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses a large token sequence using multiple threads, giving the same
+ * tree as {@link CParser#parse()}.
+ *
+ * A single scan of the tokens finds the likely boundaries between
+ * top-level constructs (directives and declarations): the points at brace,
+ * paren and bracket depth 0 where a construct could start after a
+ * semicolon, a closing brace, or the end of a directive's line.  The
+ * tokens are divided at these boundaries into chunks, and the constructs
+ * of each chunk are parsed on a fork-join pool.  Each chunk is parsed
+ * from the full token sequence, so its constructs are parsed exactly as
+ * the sequential parser would parse them if they start at the same point.
+ * If the parse of any chunk fails, or doesn't end exactly at the start of
+ * the next chunk (because a boundary was guessed wrongly), the whole
+ * sequence is parsed sequentially instead.
+ */
+public class ParallelParser {
+	// Chunks smaller than this are not worth a separate task
+	public static final int DEFAULT_MIN_CHUNK_TOKENS = 2048;
+
+	private final ForkJoinPool pool;
+	private final int minChunkTokens;
+
+	public ParallelParser() {
+		this(ForkJoinPool.commonPool(), DEFAULT_MIN_CHUNK_TOKENS);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pool           the pool to parse the chunks in
+	 * @param minChunkTokens minimum number of tokens in a chunk
+	 */
+	public ParallelParser(ForkJoinPool pool, int minChunkTokens) {
+		if (minChunkTokens < 1) {
+			throw new IllegalArgumentException("minChunkTokens must be at least 1");
+		}
+		this.pool = pool;
+		this.minChunkTokens = minChunkTokens;
+	}
+
+	/**
+	 * Parse the tokens from the current position of a token sequence to
+	 * its end.  On return, the sequence is positioned at its end.
+	 *
+	 * @param seq the token sequence
+	 * @return the UNIT node
+	 */
+	public Node parse(TokenSequence seq) {
+		int[] bounds = findChunks(seq, seq.getPos());
+		if (bounds.length <= 2) {
+			return new CParser(seq).parse();
+		}
+
+		seq.prepareMatching(TokenType.LPAREN, TokenType.RPAREN);
+		List<Node> constructs = pool.invoke(new ChunkTask(seq, bounds, 0, bounds.length - 1));
+		if (constructs == null) {
+			// A boundary was wrong, or the input has a syntax error:
+			// the sequential parser will find it
+			return new CParser(seq).parse();
+		}
+
+		Node root = new Node(NodeType.UNIT);
+		root.setStartPos(bounds[0]);
+		root.getChildren().addAll(constructs);
+		root.setEndPos(bounds[bounds.length - 1]);
+		seq.setPos(bounds[bounds.length - 1]);
+		return root;
+	}
+
+	/**
+	 * Find the boundaries of the chunks of a token sequence.
+	 *
+	 * @param seq   the token sequence
+	 * @param start index of the first token
+	 * @return the start of each chunk, followed by the end of the last chunk
+	 */
+	int[] findChunks(TokenSequence seq, int start) {
+		int n = seq.size();
+		List<Integer> bounds = new ArrayList<>();
+		bounds.add(start);
+		int depth = 0;
+		int directiveRow = -1;
+		int chunkStart = start;
+		for (int i = start; i < n; i++) {
+			Token t = seq.get(i);
+			TokenType type = t.getTokenType();
+			if (i > chunkStart && depth == 0 && i - chunkStart >= minChunkTokens && canStartConstruct(type)) {
+				Token prev = seq.get(i - 1);
+				boolean afterDirective = directiveRow >= 0 && t.getPosition().getRow() != directiveRow;
+				if (afterDirective || (directiveRow < 0 && (prev.getTokenType() == TokenType.SEMI || prev.getTokenType() == TokenType.RBRACE))) {
+					bounds.add(i);
+					chunkStart = i;
+				}
+			}
+			if (directiveRow >= 0 && t.getPosition().getRow() != directiveRow) {
+				directiveRow = -1;
+			}
+			switch (type) {
+			case LPAREN: case LBRACE: case LBRACKET:
+				depth++;
+				break;
+			case RPAREN: case RBRACE: case RBRACKET:
+				depth--;
+				break;
+			case INCLUDE: case DEFINE:
+				if (depth == 0) {
+					directiveRow = t.getPosition().getRow();
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		bounds.add(n);
+		int[] result = new int[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	private static boolean canStartConstruct(TokenType type) {
+		return type == TokenType.INCLUDE || type == TokenType.DEFINE || type.isType();
+	}
+
+	// Parses the chunks in a range, returning their constructs in order,
+	// or null if any chunk could not be parsed to exactly its end
+	private static class ChunkTask extends RecursiveTask<List<Node>> {
+		private static final long serialVersionUID = 1L;
+
+		private final transient TokenSequence seq;
+		private final int[] bounds;
+		private final int lo, hi;
+
+		ChunkTask(TokenSequence seq, int[] bounds, int lo, int hi) {
+			this.seq = seq;
+			this.bounds = bounds;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected List<Node> compute() {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				ChunkTask left = new ChunkTask(seq, bounds, lo, mid);
+				ChunkTask right = new ChunkTask(seq, bounds, mid, hi);
+				right.fork();
+				List<Node> result = left.compute();
+				List<Node> rightResult = right.join();
+				if (result == null || rightResult == null) {
+					return null;
+				}
+				result.addAll(rightResult);
+				return result;
+			}
+
+			TokenSequence view = seq.createView();
+			view.setPos(bounds[lo]);
+			CParser parser = new CParser(view);
+			List<Node> result = new ArrayList<>();
+			try {
+				while (view.getPos() < bounds[hi]) {
+					result.add(parser.parseTopLevelConstruct());
+				}
+			} catch (RuntimeException e) {
+				return null;
+			}
+			return view.getPos() == bounds[hi] ? result : null;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		if (args.length != 1) {
+			System.err.println("Usage: ParallelParser <file>");
+			System.exit(1);
+		}
+		TokenSequence seq;
+		try (Reader r = new FileReader(args[0])) {
+			seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+		}
+		ParallelParser parser = new ParallelParser();
+		int numChunks = parser.findChunks(seq, 0).length - 1;
+		long start = System.nanoTime();
+		Node unit = parser.parse(seq);
+		long nanos = System.nanoTime() - start;
+		System.out.println(seq.size() + " tokens, " + numChunks + " chunks, "
+				+ unit.getChildren().size() + " top-level constructs, " + (nanos / 1000000L) + " ms");
+	}
+}
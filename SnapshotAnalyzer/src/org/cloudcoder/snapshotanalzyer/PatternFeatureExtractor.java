@@ -0,0 +1,64 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Computes the number of nodes matched by each of a set of
+ * {@link TreePattern}s, as features named "pattern.<i>name</i>".
+ * All of the patterns are matched by one {@link TreePatternMatcher}
+ * during the engine's traversal of the tree.
+ */
+public class PatternFeatureExtractor implements IFeatureExtractor {
+	private final TreePatternMatcher matcher;
+	private final List<String> names;
+	private int[] indices;
+
+	public PatternFeatureExtractor() {
+		this.matcher = new TreePatternMatcher();
+		this.names = new ArrayList<>();
+	}
+
+	/**
+	 * Add a pattern.  All patterns must be added before the extractor
+	 * is added to an engine.
+	 *
+	 * @param name    the name of the pattern's feature (without the "pattern." prefix)
+	 * @param pattern the pattern
+	 */
+	public void addPattern(String name, String pattern) {
+		matcher.addPattern(TreePattern.parse(pattern));
+		names.add(name);
+	}
+
+	@Override
+	public void addFeatures(FeatureSchema schema) {
+		indices = new int[names.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = schema.addFeature("pattern." + names.get(i));
+		}
+	}
+
+	@Override
+	public EnumSet<NodeType> getNodeTypes() {
+		return EnumSet.allOf(NodeType.class);
+	}
+
+	@Override
+	public void startSnapshot(TokenSequence seq, FeatureVector features) {
+		matcher.startSnapshot(seq);
+	}
+
+	@Override
+	public void enterNode(Node node, Node parent, int depth, FeatureVector features) {
+		matcher.enter(node, depth);
+	}
+
+	@Override
+	public void finishSnapshot(FeatureVector features) {
+		for (int i = 0; i < indices.length; i++) {
+			features.set(indices[i], matcher.getCount(i));
+		}
+	}
+}
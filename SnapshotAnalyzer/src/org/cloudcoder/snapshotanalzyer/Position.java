@@ -3,10 +3,16 @@ package org.cloudcoder.snapshotanalzyer;
 public class Position {
 	private final int row;
 	private final int column;
+	private final int offset;
 	
 	public Position(int row, int column) {
+		this(row, column, -1);
+	}
+	
+	public Position(int row, int column, int offset) {
 		this.row = row;
 		this.column = column;
+		this.offset = offset;
 	}
 	
 	public int getRow() {
@@ -17,6 +23,13 @@ public class Position {
 		return column;
 	}
 	
+	/**
+	 * @return the character offset from the beginning of the input, or -1 if not known
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	
 	@Override
 	public String toString() {
 		return "row " + row + ", column " + column;
@@ -0,0 +1,235 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The pq-gram profile of a parse tree, over {@link NodeType} labels,
+ * used to compute an approximation of the tree edit distance between
+ * two trees in time linear in their sizes (see Augsten et al.,
+ * "The pq-Gram Distance between Ordered Labeled Trees").
+ *
+ * A pq-gram consists of a node, its p-1 closest ancestors, and q
+ * consecutive children of the node, with missing ancestors and children
+ * filled in with a dummy label.  Each pq-gram is packed into a long
+ * (exactly, when the labels fit, which they do for the default p and q),
+ * and the profile is stored as a sorted array of these keys, so the
+ * distance between two profiles is computed by a merge.
+ *
+ * For exact distances between small trees, see {@link TreeEditDistance}.
+ */
+public class PqGramProfile {
+	public static final int DEFAULT_P = 2;
+	public static final int DEFAULT_Q = 3;
+
+	// Bits per label: label 0 is the dummy label, label i+1 is NodeType i
+	private static final int LABEL_BITS = 32 - Integer.numberOfLeadingZeros(NodeType.values().length);
+
+	private final int p, q;
+	private final long[] grams; // sorted
+
+	private PqGramProfile(int p, int q, long[] grams) {
+		this.p = p;
+		this.q = q;
+		this.grams = grams;
+	}
+
+	/**
+	 * Compute the profile of a tree with the default p and q.
+	 */
+	public static PqGramProfile create(Node root) {
+		return create(root, DEFAULT_P, DEFAULT_Q);
+	}
+
+	/**
+	 * Compute the profile of a tree.
+	 *
+	 * @param root the root of the tree
+	 * @param p    the number of labels in the stem (the node and its ancestors)
+	 * @param q    the number of labels in the base (the node's children)
+	 * @return the profile
+	 */
+	public static PqGramProfile create(Node root, int p, int q) {
+		if (p < 1 || q < 1) {
+			throw new IllegalArgumentException("p and q must be at least 1");
+		}
+		Builder builder = new Builder(p, q);
+		builder.walker.walk(root, builder);
+		long[] grams = Arrays.copyOf(builder.grams, builder.numGrams);
+		Arrays.sort(grams);
+		return new PqGramProfile(p, q, grams);
+	}
+
+	/**
+	 * @return the number of pq-grams in the profile
+	 */
+	public int size() {
+		return grams.length;
+	}
+
+	/**
+	 * Compute the pq-gram distance between two profiles: 0 for
+	 * identical profiles, and 1 for profiles with no pq-grams in common.
+	 *
+	 * @param other the other profile (must have the same p and q)
+	 * @return the distance
+	 */
+	public double distance(PqGramProfile other) {
+		if (p != other.p || q != other.q) {
+			throw new IllegalArgumentException("Profiles have different p and q");
+		}
+		int total = grams.length + other.grams.length;
+		if (total == 0) {
+			return 0.0;
+		}
+		return 1.0 - 2.0 * countCommon(other) / total;
+	}
+
+	/**
+	 * @return the size of the (bag) intersection of two profiles
+	 */
+	public int countCommon(PqGramProfile other) {
+		long[] a = grams, b = other.grams;
+		int i = 0, j = 0, common = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				common++;
+				i++;
+				j++;
+			}
+		}
+		return common;
+	}
+
+	/**
+	 * Write the profile.  The sorted keys are delta-encoded,
+	 * so a profile typically takes one or two bytes per pq-gram.
+	 */
+	public void write(VarIntWriter out) {
+		out.writeUnsigned(p);
+		out.writeUnsigned(q);
+		out.writeUnsigned(grams.length);
+		long prev = 0L;
+		for (long gram : grams) {
+			out.writeUnsignedLong(gram - prev);
+			prev = gram;
+		}
+	}
+
+	public static PqGramProfile read(ByteBuffer buf) {
+		int p = VarInt.readUnsigned(buf);
+		int q = VarInt.readUnsigned(buf);
+		long[] grams = new long[VarInt.readUnsigned(buf)];
+		long prev = 0L;
+		for (int i = 0; i < grams.length; i++) {
+			prev += VarInt.readUnsignedLong(buf);
+			grams[i] = prev;
+		}
+		return new PqGramProfile(p, q, grams);
+	}
+
+	/**
+	 * Generates the pq-grams of each node when the walk enters it:
+	 * the stem comes from the walker's path, and the bases slide
+	 * over the node's children.
+	 */
+	private static class Builder implements ITreeVisitor {
+		private final int p, q;
+		private final boolean exact;
+		private final TreeWalker walker;
+		private final int[] labels; // labels of the current pq-gram: stem, then base
+		private long[] grams;
+		private int numGrams;
+
+		public Builder(int p, int q) {
+			this.p = p;
+			this.q = q;
+			this.exact = (p + q) * LABEL_BITS < 64;
+			this.walker = new TreeWalker();
+			this.labels = new int[p + q];
+			this.grams = new long[64];
+			this.numGrams = 0;
+		}
+
+		@Override
+		public boolean enter(Node node, int depth) {
+			for (int i = 0; i < p; i++) {
+				int level = depth - (p - 1) + i;
+				labels[i] = level >= 0 ? label(walker.getNode(level)) : 0;
+			}
+			int numChildren = node.getChildren().size();
+			if (numChildren == 0) {
+				Arrays.fill(labels, p, p + q, 0);
+				addGram();
+			} else {
+				// Windows of q children, padded with dummies at both ends
+				for (int start = 1 - q; start < numChildren; start++) {
+					for (int i = 0; i < q; i++) {
+						int child = start + i;
+						labels[p + i] = (child >= 0 && child < numChildren) ? label(node.getChildren().get(child)) : 0;
+					}
+					addGram();
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void exit(Node node, int depth) {
+		}
+
+		private void addGram() {
+			long key = 0L;
+			if (exact) {
+				for (int label : labels) {
+					key = (key << LABEL_BITS) | label;
+				}
+			} else {
+				for (int label : labels) {
+					key = (key ^ label) * 0x9E3779B97F4A7C15L;
+					key ^= key >>> 29;
+				}
+			}
+			if (numGrams == grams.length) {
+				grams = Arrays.copyOf(grams, numGrams * 2);
+			}
+			grams[numGrams++] = key;
+		}
+
+		private static int label(Node node) {
+			return node.getNodeType().ordinal() + 1;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		// Print the pq-gram distance (and, for small trees, the exact
+		// tree edit distance) between each pair of files
+		Node[] trees = new Node[args.length];
+		PqGramProfile[] profiles = new PqGramProfile[args.length];
+		for (int i = 0; i < args.length; i++) {
+			try (Reader r = new FileReader(args[i])) {
+				TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+				trees[i] = new CParser(seq).parse();
+				profiles[i] = create(trees[i]);
+			}
+		}
+		for (int i = 0; i < args.length; i++) {
+			for (int j = i + 1; j < args.length; j++) {
+				StringBuilder buf = new StringBuilder();
+				buf.append(args[i]).append(' ').append(args[j]).append(": pq-gram distance ");
+				buf.append(String.format("%.4f", profiles[i].distance(profiles[j])));
+				if (TreeEditDistance.isSmall(trees[i]) && TreeEditDistance.isSmall(trees[j])) {
+					buf.append(", tree edit distance ").append(TreeEditDistance.compute(trees[i], trees[j]));
+				}
+				System.out.println(buf);
+			}
+		}
+	}
+}
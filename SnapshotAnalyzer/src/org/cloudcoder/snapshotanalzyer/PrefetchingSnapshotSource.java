@@ -0,0 +1,154 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Base class for snapshot sources that read snapshots on a separate
+ * thread, so that reading (and decompressing) the next snapshots overlaps
+ * with lexing and parsing the current one.  A fixed pool of
+ * {@link Snapshot} buffers cycles between the reader thread and the
+ * consumer, so no buffers are allocated once the pool has warmed up.
+ */
+public abstract class PrefetchingSnapshotSource implements ISnapshotSource {
+	public static final int DEFAULT_PREFETCH = 4;
+
+	// Sentinel marking the end of the stream of snapshots
+	private static final Snapshot END = new Snapshot();
+
+	private final BlockingQueue<Snapshot> free;
+	private final BlockingQueue<Snapshot> full;
+	private final String threadName;
+	private Thread thread;
+	private volatile Throwable error;
+	private volatile boolean stopping;
+	private Snapshot current;
+	private boolean done;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param threadName name of the reader thread
+	 * @param prefetch   maximum number of snapshots to read ahead of the consumer
+	 */
+	protected PrefetchingSnapshotSource(String threadName, int prefetch) {
+		if (prefetch < 1) {
+			throw new IllegalArgumentException("prefetch must be at least 1");
+		}
+		// One extra buffer for the snapshot currently held by the consumer,
+		// and one extra slot in the full queue for the END sentinel
+		this.free = new ArrayBlockingQueue<>(prefetch + 1);
+		this.full = new ArrayBlockingQueue<>(prefetch + 2);
+		for (int i = 0; i < prefetch + 1; i++) {
+			free.add(new Snapshot());
+		}
+		this.threadName = threadName;
+	}
+
+	/**
+	 * Fill given snapshot with the contents of the next snapshot.
+	 * Called only on the reader thread.
+	 *
+	 * @param snapshot the (recycled) snapshot to fill
+	 * @return true if the snapshot was filled, false if there are no more snapshots
+	 * @throws IOException
+	 */
+	protected abstract boolean fill(Snapshot snapshot) throws IOException;
+
+	/**
+	 * Close the underlying source of snapshots.
+	 *
+	 * @throws IOException
+	 */
+	protected abstract void closeSource() throws IOException;
+
+	@Override
+	public Snapshot readNext() throws IOException {
+		if (thread == null) {
+			start();
+		}
+		if (current != null) {
+			free.add(current);
+			current = null;
+		}
+		if (done) {
+			return null;
+		}
+
+		Snapshot snapshot;
+		try {
+			snapshot = full.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for snapshot", e);
+		}
+
+		if (snapshot == END) {
+			done = true;
+			Throwable t = error;
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			} else if (t != null) {
+				throw new IOException("Error reading snapshots", t);
+			}
+			return null;
+		}
+
+		current = snapshot;
+		return snapshot;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Closing the source first unblocks a reader thread waiting on I/O
+		try {
+			closeSource();
+		} finally {
+			stopReader();
+		}
+	}
+
+	/**
+	 * Stop the reader thread (if it was started), and wait for it to finish.
+	 * A reader thread in the middle of {@link #fill(Snapshot)} finishes
+	 * filling the snapshot first.
+	 */
+	protected void stopReader() {
+		if (thread != null) {
+			// The flag covers a fill which swallows the interrupt
+			stopping = true;
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void start() {
+		thread = new Thread(() -> readSnapshots(), threadName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void readSnapshots() {
+		try {
+			while (true) {
+				Snapshot snapshot = free.take();
+				if (!fill(snapshot) || stopping) {
+					break;
+				}
+				full.put(snapshot);
+			}
+		} catch (InterruptedException e) {
+			// Source is being closed
+		} catch (IOException | RuntimeException e) {
+			error = e;
+		} finally {
+			// There is always room for the sentinel
+			full.offer(END);
+		}
+	}
+}
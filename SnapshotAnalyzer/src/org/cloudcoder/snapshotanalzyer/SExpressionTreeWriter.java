@@ -0,0 +1,35 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.IOException;
+
+/**
+ * Writes a parse tree as an S-expression.  Each node is written as
+ * <code>(TYPE start end "lexeme" children...)</code>, where the lexeme
+ * is omitted if the node has no start position.
+ */
+public class SExpressionTreeWriter extends TreeWriter {
+	public SExpressionTreeWriter(Appendable out, TokenSequence seq) {
+		super(out, seq);
+	}
+
+	@Override
+	protected void startNode(Node node, int depth) throws IOException {
+		if (depth > 0) {
+			out.append(' ');
+		}
+		out.append('(').append(node.getNodeType().name()).append(' ');
+		appendInt(node.getStartPos());
+		out.append(' ');
+		appendInt(node.getEndPos());
+		String lexeme = getLexeme(node);
+		if (lexeme != null) {
+			out.append(' ');
+			appendQuoted(lexeme);
+		}
+	}
+
+	@Override
+	protected void endNode(Node node, int depth) throws IOException {
+		out.append(')');
+	}
+}
@@ -0,0 +1,131 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The contents of a single snapshot, along with the name it was
+ * stored under.  The data buffer is reused from one snapshot to the
+ * next, so the contents must be consumed (lexed, copied, etc.)
+ * before the snapshot is handed back to the {@link ISnapshotSource}
+ * it came from.
+ */
+public class Snapshot {
+	private static final int INITIAL_CAPACITY = 8192;
+
+	private String name;
+	private long submissionId;
+	private long timestamp;
+	private byte[] data;
+	private int length;
+
+	public Snapshot() {
+		this.submissionId = -1L;
+		this.data = new byte[INITIAL_CAPACITY];
+		this.length = 0;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setSubmissionId(long submissionId) {
+		this.submissionId = submissionId;
+	}
+
+	/**
+	 * @return the id of the submission this snapshot belongs to, or -1 if not known
+	 */
+	public long getSubmissionId() {
+		return submissionId;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return the time the snapshot was taken (milliseconds since the epoch), if known
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the data buffer: only the first {@link #getLength()} bytes are valid
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Replace the contents of this snapshot with bytes read from given input stream.
+	 *
+	 * @param in   the input stream
+	 * @param size the exact number of bytes to read, or -1 to read until EOF
+	 * @throws IOException
+	 */
+	public void readFrom(InputStream in, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Snapshot " + name + " is too large (" + size + " bytes)");
+		}
+		length = 0;
+		if (size >= 0) {
+			ensureCapacity((int) size);
+		}
+		while (size < 0 || length < size) {
+			if (length == data.length) {
+				ensureCapacity(length + 1);
+			}
+			int max = (size < 0) ? data.length - length : (int) size - length;
+			int n = in.read(data, length, max);
+			if (n < 0) {
+				if (size >= 0) {
+					throw new EOFException("Unexpected EOF reading snapshot " + name);
+				}
+				break;
+			}
+			length += n;
+		}
+	}
+
+	/**
+	 * Replace the contents of this snapshot with a copy of given bytes.
+	 *
+	 * @param buf the buffer containing the bytes
+	 * @param off offset of the first byte
+	 * @param len number of bytes
+	 */
+	public void setData(byte[] buf, int off, int len) {
+		ensureCapacity(len);
+		System.arraycopy(buf, off, data, 0, len);
+		length = len;
+	}
+
+	/**
+	 * @return a Reader which reads the contents of the snapshot as UTF-8 text
+	 */
+	public Reader createReader() {
+		return new InputStreamReader(new ByteArrayInputStream(data, 0, length), StandardCharsets.UTF_8);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > data.length) {
+			data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+		}
+	}
+}
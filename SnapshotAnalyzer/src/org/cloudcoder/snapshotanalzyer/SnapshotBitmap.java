@@ -0,0 +1,437 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of (non-negative) snapshot ids, organized like a
+ * "roaring" bitmap: ids are partitioned by their high 16 bits, and each
+ * partition is stored either as a sorted array of the low 16 bits
+ * (when sparse) or as a 65536-bit bitmap (when dense).
+ * Adding ids in increasing order is fast.
+ */
+public class SnapshotBitmap {
+	// Partitions with more values than this are stored as bitmaps
+	private static final int ARRAY_MAX = 4096;
+
+	private char[] keys;
+	private Container[] containers;
+	private int size;
+
+	public SnapshotBitmap() {
+		this.keys = new char[4];
+		this.containers = new Container[4];
+		this.size = 0;
+	}
+
+	/**
+	 * Add an id.
+	 *
+	 * @param id the id (must be non-negative)
+	 */
+	public void add(int id) {
+		if (id < 0) {
+			throw new IllegalArgumentException("Negative id");
+		}
+		char key = (char) (id >>> 16);
+		int index;
+		if (size > 0 && keys[size - 1] == key) {
+			index = size - 1;
+		} else {
+			index = Arrays.binarySearch(keys, 0, size, key);
+			if (index < 0) {
+				index = -(index + 1);
+				insert(index, key, new ArrayContainer(4));
+			}
+		}
+		containers[index] = containers[index].add((char) id);
+	}
+
+	public boolean contains(int id) {
+		if (id < 0) {
+			return false;
+		}
+		int index = Arrays.binarySearch(keys, 0, size, (char) (id >>> 16));
+		return index >= 0 && containers[index].contains((char) id);
+	}
+
+	public int getCardinality() {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			count += containers[i].getCardinality();
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Call a consumer for each id in the set, in increasing order.
+	 */
+	public void forEach(IntConsumer consumer) {
+		for (int i = 0; i < size; i++) {
+			containers[i].forEach(keys[i] << 16, consumer);
+		}
+	}
+
+	public int[] toArray() {
+		int[] result = new int[getCardinality()];
+		int[] n = new int[1];
+		forEach(id -> result[n[0]++] = id);
+		return result;
+	}
+
+	/**
+	 * @return a copy of this set, which may be modified independently
+	 */
+	public SnapshotBitmap copy() {
+		SnapshotBitmap result = new SnapshotBitmap();
+		for (int i = 0; i < size; i++) {
+			result.appendIfNotEmpty(keys[i], containers[i].copy());
+		}
+		return result;
+	}
+
+	public static SnapshotBitmap and(SnapshotBitmap a, SnapshotBitmap b) {
+		SnapshotBitmap result = new SnapshotBitmap();
+		int i = 0, j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.keys[i] < b.keys[j]) {
+				i++;
+			} else if (a.keys[i] > b.keys[j]) {
+				j++;
+			} else {
+				result.appendIfNotEmpty(a.keys[i], a.containers[i].and(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	public static SnapshotBitmap or(SnapshotBitmap a, SnapshotBitmap b) {
+		SnapshotBitmap result = new SnapshotBitmap();
+		int i = 0, j = 0;
+		while (i < a.size || j < b.size) {
+			if (j >= b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				result.appendIfNotEmpty(a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (i >= a.size || a.keys[i] > b.keys[j]) {
+				result.appendIfNotEmpty(b.keys[j], b.containers[j].copy());
+				j++;
+			} else {
+				result.appendIfNotEmpty(a.keys[i], a.containers[i].or(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the ids in a which are not in b
+	 */
+	public static SnapshotBitmap andNot(SnapshotBitmap a, SnapshotBitmap b) {
+		SnapshotBitmap result = new SnapshotBitmap();
+		int j = 0;
+		for (int i = 0; i < a.size; i++) {
+			while (j < b.size && b.keys[j] < a.keys[i]) {
+				j++;
+			}
+			if (j < b.size && b.keys[j] == a.keys[i]) {
+				result.appendIfNotEmpty(a.keys[i], a.containers[i].andNot(b.containers[j]));
+			} else {
+				result.appendIfNotEmpty(a.keys[i], a.containers[i].copy());
+			}
+		}
+		return result;
+	}
+
+	public void write(VarIntWriter out) {
+		out.writeUnsigned(size);
+		for (int i = 0; i < size; i++) {
+			out.writeUnsigned(keys[i]);
+			containers[i].write(out);
+		}
+	}
+
+	public static SnapshotBitmap read(ByteBuffer buf) {
+		SnapshotBitmap result = new SnapshotBitmap();
+		int n = VarInt.readUnsigned(buf);
+		for (int i = 0; i < n; i++) {
+			char key = (char) VarInt.readUnsigned(buf);
+			int cardinality = VarInt.readUnsigned(buf);
+			Container c;
+			if (cardinality > ARRAY_MAX) {
+				BitmapContainer bc = new BitmapContainer();
+				for (int w = 0; w < bc.words.length; w++) {
+					bc.words[w] = buf.getLong();
+				}
+				bc.cardinality = cardinality;
+				c = bc;
+			} else {
+				// Array values are delta-encoded
+				ArrayContainer ac = new ArrayContainer(cardinality);
+				int prev = 0;
+				for (int k = 0; k < cardinality; k++) {
+					prev += VarInt.readUnsigned(buf);
+					ac.values[k] = (char) prev;
+				}
+				ac.size = cardinality;
+				c = ac;
+			}
+			result.appendIfNotEmpty(key, c);
+		}
+		return result;
+	}
+
+	private void insert(int index, char key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = key;
+		containers[index] = container;
+		size++;
+	}
+
+	private void appendIfNotEmpty(char key, Container container) {
+		if (container.getCardinality() > 0) {
+			insert(size, key, container);
+		}
+	}
+
+	private static abstract class Container {
+		public abstract Container add(char value);
+		public abstract boolean contains(char value);
+		public abstract int getCardinality();
+		public abstract void forEach(int high, IntConsumer consumer);
+		public abstract Container copy();
+		public abstract void write(VarIntWriter out);
+
+		public Container and(Container other) {
+			if (this instanceof BitmapContainer && other instanceof BitmapContainer) {
+				BitmapContainer a = (BitmapContainer) this, b = (BitmapContainer) other;
+				BitmapContainer result = new BitmapContainer();
+				for (int i = 0; i < result.words.length; i++) {
+					result.words[i] = a.words[i] & b.words[i];
+				}
+				return result.normalize();
+			}
+			// At least one side is an array: keep the array values present in the other side
+			ArrayContainer array = (ArrayContainer) (this instanceof ArrayContainer ? this : other);
+			Container probe = (array == this) ? other : this;
+			ArrayContainer result = new ArrayContainer(array.size);
+			for (int i = 0; i < array.size; i++) {
+				if (probe.contains(array.values[i])) {
+					result.values[result.size++] = array.values[i];
+				}
+			}
+			return result;
+		}
+
+		public Container or(Container other) {
+			// Start with a copy of the bitmap side (if any), and add the other side to it
+			Container result = (this instanceof BitmapContainer) ? this.copy() : other.copy();
+			Container rest = (this instanceof BitmapContainer) ? other : this;
+			if (rest instanceof BitmapContainer) {
+				BitmapContainer a = (BitmapContainer) result, b = (BitmapContainer) rest;
+				for (int i = 0; i < a.words.length; i++) {
+					a.words[i] |= b.words[i];
+				}
+				return a.recount();
+			}
+			ArrayContainer array = (ArrayContainer) rest;
+			for (int i = 0; i < array.size; i++) {
+				result = result.add(array.values[i]);
+			}
+			return result;
+		}
+
+		public Container andNot(Container other) {
+			if (this instanceof BitmapContainer) {
+				BitmapContainer result = (BitmapContainer) this.copy();
+				if (other instanceof BitmapContainer) {
+					BitmapContainer b = (BitmapContainer) other;
+					for (int i = 0; i < result.words.length; i++) {
+						result.words[i] &= ~b.words[i];
+					}
+				} else {
+					ArrayContainer b = (ArrayContainer) other;
+					for (int i = 0; i < b.size; i++) {
+						result.words[b.values[i] >>> 6] &= ~(1L << b.values[i]);
+					}
+				}
+				return result.normalize();
+			}
+			ArrayContainer array = (ArrayContainer) this;
+			ArrayContainer result = new ArrayContainer(array.size);
+			for (int i = 0; i < array.size; i++) {
+				if (!other.contains(array.values[i])) {
+					result.values[result.size++] = array.values[i];
+				}
+			}
+			return result;
+		}
+	}
+
+	private static class ArrayContainer extends Container {
+		private char[] values;
+		private int size;
+
+		public ArrayContainer(int capacity) {
+			this.values = new char[Math.max(capacity, 1)];
+			this.size = 0;
+		}
+
+		@Override
+		public Container add(char value) {
+			int index;
+			if (size == 0 || values[size - 1] < value) {
+				index = size;
+			} else {
+				index = Arrays.binarySearch(values, 0, size, value);
+				if (index >= 0) {
+					return this;
+				}
+				index = -(index + 1);
+			}
+			if (size == ARRAY_MAX) {
+				// Too many values: convert to a bitmap
+				BitmapContainer bitmap = new BitmapContainer();
+				for (int i = 0; i < size; i++) {
+					bitmap.add(values[i]);
+				}
+				return bitmap.add(value);
+			}
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_MAX));
+			}
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = value;
+			size++;
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, size, value) >= 0;
+		}
+
+		@Override
+		public int getCardinality() {
+			return size;
+		}
+
+		@Override
+		public void forEach(int high, IntConsumer consumer) {
+			for (int i = 0; i < size; i++) {
+				consumer.accept(high | values[i]);
+			}
+		}
+
+		@Override
+		public Container copy() {
+			ArrayContainer result = new ArrayContainer(size);
+			System.arraycopy(values, 0, result.values, 0, size);
+			result.size = size;
+			return result;
+		}
+
+		@Override
+		public void write(VarIntWriter out) {
+			out.writeUnsigned(size);
+			int prev = 0;
+			for (int i = 0; i < size; i++) {
+				out.writeUnsigned(values[i] - prev);
+				prev = values[i];
+			}
+		}
+	}
+
+	private static class BitmapContainer extends Container {
+		private final long[] words;
+		private int cardinality;
+
+		public BitmapContainer() {
+			this.words = new long[1024];
+			this.cardinality = 0;
+		}
+
+		@Override
+		public Container add(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		@Override
+		public boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		@Override
+		public int getCardinality() {
+			return cardinality;
+		}
+
+		@Override
+		public void forEach(int high, IntConsumer consumer) {
+			for (int i = 0; i < words.length; i++) {
+				long w = words[i];
+				while (w != 0) {
+					consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(w));
+					w &= w - 1;
+				}
+			}
+		}
+
+		@Override
+		public Container copy() {
+			BitmapContainer result = new BitmapContainer();
+			System.arraycopy(words, 0, result.words, 0, words.length);
+			result.cardinality = cardinality;
+			return result;
+		}
+
+		@Override
+		public void write(VarIntWriter out) {
+			if (cardinality <= ARRAY_MAX) {
+				normalize().write(out);
+				return;
+			}
+			out.writeUnsigned(cardinality);
+			for (long w : words) {
+				out.writeLong(w);
+			}
+		}
+
+		private BitmapContainer recount() {
+			int count = 0;
+			for (long w : words) {
+				count += Long.bitCount(w);
+			}
+			cardinality = count;
+			return this;
+		}
+
+		// Convert to an array container if sparse enough
+		private Container normalize() {
+			recount();
+			if (cardinality > ARRAY_MAX) {
+				return this;
+			}
+			ArrayContainer array = new ArrayContainer(cardinality);
+			forEach(0, v -> array.values[array.size++] = (char) v);
+			return array;
+		}
+	}
+}
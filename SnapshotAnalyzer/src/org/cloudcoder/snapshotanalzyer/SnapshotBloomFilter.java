@@ -0,0 +1,137 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.Arrays;
+
+/**
+ * Compact summary of the tokens in a snapshot: an exact bit mask of
+ * the token types that occur, and a Bloom filter of the identifiers.
+ * A filter can say for certain that a snapshot does not contain a token
+ * type or identifier, so queries can skip lexing snapshots that can't match.
+ *
+ * A filter is stored as an array of longs: {@link #TOKEN_TYPE_WORDS}
+ * words of token type mask, followed by the Bloom filter bits.
+ */
+public class SnapshotBloomFilter {
+	public static final int TOKEN_TYPE_WORDS = (TokenType.values().length + 63) >>> 6;
+	public static final int DEFAULT_BLOOM_BITS = 512;
+	public static final int DEFAULT_NUM_HASHES = 4;
+
+	private final long[] words;
+	private final int bloomMask;
+	private final int numHashes;
+
+	public SnapshotBloomFilter() {
+		this(DEFAULT_BLOOM_BITS, DEFAULT_NUM_HASHES);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param bloomBits number of bits in the identifier Bloom filter: must be a power of 2, at least 64
+	 * @param numHashes number of hash functions
+	 */
+	public SnapshotBloomFilter(int bloomBits, int numHashes) {
+		if (bloomBits < 64 || Integer.bitCount(bloomBits) != 1) {
+			throw new IllegalArgumentException("Bloom filter size must be a power of 2, at least 64");
+		}
+		this.words = new long[getNumWords(bloomBits)];
+		this.bloomMask = bloomBits - 1;
+		this.numHashes = numHashes;
+	}
+
+	/**
+	 * @return the number of longs needed to store a filter with given Bloom filter size
+	 */
+	public static int getNumWords(int bloomBits) {
+		return TOKEN_TYPE_WORDS + (bloomBits >>> 6);
+	}
+
+	public void addTokenType(TokenType tokenType) {
+		int t = tokenType.ordinal();
+		words[t >>> 6] |= 1L << t;
+	}
+
+	public void addIdentifier(CharSequence name) {
+		long h = hash(name);
+		int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+		for (int i = 0; i < numHashes; i++) {
+			int bit = (h1 + i * h2) & bloomMask;
+			words[TOKEN_TYPE_WORDS + (bit >>> 6)] |= 1L << bit;
+		}
+	}
+
+	public void add(Token token) {
+		addTokenType(token.getTokenType());
+		if (token.getTokenType() == TokenType.IDENT) {
+			addIdentifier(token.getLexeme());
+		}
+	}
+
+	/**
+	 * Make the filter match everything (for example, for a snapshot
+	 * whose contents are not known).
+	 */
+	public void setAll() {
+		Arrays.fill(words, -1L);
+	}
+
+	public void clear() {
+		Arrays.fill(words, 0L);
+	}
+
+	/**
+	 * @return the filter's words (not a copy)
+	 */
+	public long[] getWords() {
+		return words;
+	}
+
+	/**
+	 * Check whether a filter might contain a token type.
+	 *
+	 * @param words     array containing the filter
+	 * @param offset    index of the filter's first word
+	 * @param tokenType the token type
+	 * @return false if the filter definitely does not contain the token type
+	 */
+	public static boolean mightContainTokenType(long[] words, int offset, TokenType tokenType) {
+		int t = tokenType.ordinal();
+		return (words[offset + (t >>> 6)] & (1L << t)) != 0;
+	}
+
+	/**
+	 * Check whether a filter might contain an identifier.
+	 *
+	 * @param words     array containing the filter
+	 * @param offset    index of the filter's first word
+	 * @param bloomBits the filter's Bloom filter size
+	 * @param numHashes the filter's number of hash functions
+	 * @param hash      the identifier's hash (see {@link #hash(CharSequence)})
+	 * @return false if the filter definitely does not contain the identifier
+	 */
+	public static boolean mightContainIdentifier(long[] words, int offset, int bloomBits, int numHashes, long hash) {
+		int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+		for (int i = 0; i < numHashes; i++) {
+			int bit = (h1 + i * h2) & (bloomBits - 1);
+			if ((words[offset + TOKEN_TYPE_WORDS + (bit >>> 6)] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 64 bit hash of an identifier (FNV-1a, with a final mix).
+	 */
+	public static long hash(CharSequence name) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < name.length(); i++) {
+			h ^= name.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+}
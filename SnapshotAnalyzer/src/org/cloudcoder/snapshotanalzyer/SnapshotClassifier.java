@@ -0,0 +1,502 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classifies snapshots using a set of named rules.
+ * A rule is a boolean expression over conditions on features:
+ * <pre>
+ * nested_loops: max_loop_nesting &gt;= 2
+ * loop_in_if: match("IF_STATEMENT &gt;&gt; FOR_STATEMENT") | match("IF_STATEMENT &gt;&gt; WHILE_STATEMENT")
+ * no_return: functions_defined &gt; 0 &amp; !ident(return)
+ * </pre>
+ * A condition is a feature name (any feature computed by the standard
+ * feature extractors), <code>match("<i>pattern</i>")</code> (the number of
+ * nodes matching a {@link TreePattern}), or <code>ident(<i>name</i>)</code>
+ * (the number of occurrences of an identifier), optionally compared
+ * to an integer with one of <code>&gt;= &gt; &lt;= &lt; == !=</code>.
+ * A condition without a comparison is true if the value is greater than 0.
+ * Conditions are combined with <code>&amp;</code>, <code>|</code>,
+ * <code>!</code>, and parentheses.
+ *
+ * All of the rules are compiled into one network, in which equivalent
+ * conditions and subexpressions are shared: adding a rule only adds
+ * the nodes that aren't already in the network.  All of the features
+ * needed by the rules (including all of the tree patterns) are computed
+ * in one pass of a {@link FeatureExtractionEngine}, after which each node
+ * of the network is evaluated exactly once, children before parents.
+ *
+ * A classifier should only be used by one thread at a time.
+ */
+public class SnapshotClassifier {
+	// Network node kinds
+	private static final int CONDITION = 0;
+	private static final int AND = 1;
+	private static final int OR = 2;
+	private static final int NOT = 3;
+
+	// Comparison operators (> and < are normalized to >= and <=)
+	private static final int GE = 0;
+	private static final int LE = 1;
+	private static final int EQ = 2;
+	private static final int NE = 3;
+	private static final String[] OP_NAMES = { ">=", "<=", "==", "!=" };
+
+	// The network: node i's operands are always nodes with smaller indices
+	private int numNodes;
+	private int[] kinds;
+	private int[] left, right; // operands of AND/OR/NOT nodes
+	private int[] ops; // operator of CONDITION nodes
+	private long[] operands; // operand of CONDITION nodes (long, so normalizing > and < can't overflow)
+	private final List<String> featureNames; // feature name of each node (null if not a CONDITION)
+	private int[] featureIndices;
+	private final Map<String, Integer> nodesByKey;
+
+	private final List<String> ruleNames;
+	private final List<Integer> ruleNodes;
+
+	private final PatternFeatureExtractor patterns;
+	private final IdentifierCountExtractor identifiers;
+	private final Map<String, String> patternFeatures; // canonical pattern to feature name
+	private final Map<String, String> identifierFeatures;
+	private final FeatureSchema standardSchema;
+
+	private FeatureExtractionEngine engine;
+	private FeatureVector features;
+	private boolean[] values;
+
+	public SnapshotClassifier() {
+		this.numNodes = 0;
+		this.kinds = new int[16];
+		this.left = new int[16];
+		this.right = new int[16];
+		this.ops = new int[16];
+		this.operands = new long[16];
+		this.featureNames = new ArrayList<>();
+		this.nodesByKey = new HashMap<>();
+		this.ruleNames = new ArrayList<>();
+		this.ruleNodes = new ArrayList<>();
+		this.patterns = new PatternFeatureExtractor();
+		this.identifiers = new IdentifierCountExtractor();
+		this.patternFeatures = new HashMap<>();
+		this.identifierFeatures = new HashMap<>();
+		this.standardSchema = FeatureExtractionEngine.createStandard().getSchema();
+	}
+
+	/**
+	 * Add a rule.  All rules must be added before the first
+	 * snapshot is classified.
+	 *
+	 * @param name the name of the rule
+	 * @param expr the rule's expression
+	 * @return the index of the rule
+	 * @throws IllegalArgumentException if the expression is invalid (in
+	 *         which case the classifier is unchanged)
+	 */
+	public int addRule(String name, String expr) {
+		if (engine != null) {
+			throw new IllegalStateException("Rules can't be added after classification has started");
+		}
+		int mark = numNodes;
+		RuleParser parser = new RuleParser(expr);
+		int node;
+		try {
+			node = parser.parse();
+		} catch (IllegalArgumentException e) {
+			// Remove the nodes added for the rule
+			numNodes = mark;
+			featureNames.subList(mark, featureNames.size()).clear();
+			nodesByKey.values().removeIf(n -> n >= mark);
+			throw e;
+		}
+
+		// Only now register the rule's new patterns and identifiers
+		for (Map.Entry<String, String> entry : parser.newPatterns.entrySet()) {
+			patterns.addPattern(entry.getValue().substring("pattern.".length()), entry.getKey());
+			patternFeatures.put(entry.getKey(), entry.getValue());
+		}
+		for (Map.Entry<String, String> entry : parser.newIdentifiers.entrySet()) {
+			identifiers.addIdentifier(entry.getKey());
+			identifierFeatures.put(entry.getKey(), entry.getValue());
+		}
+		ruleNames.add(name);
+		ruleNodes.add(node);
+		return ruleNames.size() - 1;
+	}
+
+	public int getNumRules() {
+		return ruleNames.size();
+	}
+
+	public String getRuleName(int rule) {
+		return ruleNames.get(rule);
+	}
+
+	/**
+	 * @return the number of nodes in the network (which is less than the
+	 *         total size of the rules if they share conditions)
+	 */
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * Classify a snapshot.  Afterwards, {@link #isMatched(int)} returns
+	 * the results.
+	 *
+	 * @param seq  the snapshot's tokens
+	 * @param unit the snapshot's parse tree
+	 */
+	public void classify(TokenSequence seq, Node unit) {
+		if (engine == null) {
+			compile();
+		}
+		engine.extract(seq, unit, features);
+		evaluate();
+	}
+
+	/**
+	 * @param rule index of a rule
+	 * @return true if the rule matched the most recently classified snapshot
+	 */
+	public boolean isMatched(int rule) {
+		return values[ruleNodes.get(rule)];
+	}
+
+	/**
+	 * @return the features of the most recently classified snapshot
+	 */
+	public FeatureVector getFeatures() {
+		return features;
+	}
+
+	public FeatureSchema getSchema() {
+		if (engine == null) {
+			compile();
+		}
+		return engine.getSchema();
+	}
+
+	private void evaluate() {
+		int[] fv = features.getValues();
+		for (int i = 0; i < numNodes; i++) {
+			switch (kinds[i]) {
+			case CONDITION:
+				int value = fv[featureIndices[i]];
+				switch (ops[i]) {
+				case GE: values[i] = value >= operands[i]; break;
+				case LE: values[i] = value <= operands[i]; break;
+				case EQ: values[i] = value == operands[i]; break;
+				default: values[i] = value != operands[i]; break;
+				}
+				break;
+			case AND:
+				values[i] = values[left[i]] && values[right[i]];
+				break;
+			case OR:
+				values[i] = values[left[i]] || values[right[i]];
+				break;
+			default:
+				values[i] = !values[left[i]];
+				break;
+			}
+		}
+	}
+
+	private void compile() {
+		engine = FeatureExtractionEngine.createStandard();
+		if (!patternFeatures.isEmpty()) {
+			engine.addExtractor(patterns);
+		}
+		if (!identifierFeatures.isEmpty()) {
+			engine.addExtractor(identifiers);
+		}
+		FeatureSchema schema = engine.getSchema();
+		featureIndices = new int[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			if (kinds[i] == CONDITION) {
+				featureIndices[i] = schema.indexOf(featureNames.get(i));
+				if (featureIndices[i] < 0) {
+					engine = null;
+					throw new IllegalArgumentException("Unknown feature " + featureNames.get(i));
+				}
+			}
+		}
+		features = engine.createFeatureVector();
+		values = new boolean[numNodes];
+	}
+
+	// Find or create a network node
+	private int getNode(int kind, int a, int b, String featureName, int op, long operand) {
+		String key;
+		switch (kind) {
+		case CONDITION:
+			key = featureName + OP_NAMES[op] + operand;
+			break;
+		case AND:
+		case OR:
+			// AND and OR are commutative
+			key = (kind == AND ? "&" : "|") + Math.min(a, b) + "," + Math.max(a, b);
+			break;
+		default:
+			key = "!" + a;
+			break;
+		}
+		Integer existing = nodesByKey.get(key);
+		if (existing != null) {
+			return existing;
+		}
+		if (numNodes == kinds.length) {
+			int n = numNodes * 2;
+			kinds = Arrays.copyOf(kinds, n);
+			left = Arrays.copyOf(left, n);
+			right = Arrays.copyOf(right, n);
+			ops = Arrays.copyOf(ops, n);
+			operands = Arrays.copyOf(operands, n);
+		}
+		int node = numNodes++;
+		kinds[node] = kind;
+		left[node] = a;
+		right[node] = b;
+		ops[node] = op;
+		operands[node] = operand;
+		featureNames.add(featureName);
+		nodesByKey.put(key, node);
+		return node;
+	}
+
+	/**
+	 * Recursive descent parser for rule expressions, which adds
+	 * the nodes of the expression to the network.  The patterns and
+	 * identifiers first used by the expression are collected, to be
+	 * registered if the whole expression is valid.
+	 * NOT binds tighter than AND, which binds tighter than OR.
+	 */
+	private class RuleParser {
+		private final String expr;
+		private int pos;
+		final Map<String, String> newPatterns = new LinkedHashMap<>(); // canonical pattern to feature name
+		final Map<String, String> newIdentifiers = new LinkedHashMap<>();
+
+		public RuleParser(String expr) {
+			this.expr = expr;
+			this.pos = 0;
+		}
+
+		public int parse() {
+			int node = parseOr();
+			skipWs();
+			if (pos < expr.length()) {
+				throw error("Unexpected character");
+			}
+			return node;
+		}
+
+		private int parseOr() {
+			int node = parseAnd();
+			while (accept("|")) {
+				node = getNode(OR, node, parseAnd(), null, 0, 0);
+			}
+			return node;
+		}
+
+		private int parseAnd() {
+			int node = parseNot();
+			while (accept("&")) {
+				node = getNode(AND, node, parseNot(), null, 0, 0);
+			}
+			return node;
+		}
+
+		private int parseNot() {
+			if (accept("!")) {
+				int operand = parseNot();
+				if (kinds[operand] == NOT) {
+					return left[operand];
+				}
+				return getNode(NOT, operand, -1, null, 0, 0);
+			}
+			if (accept("(")) {
+				int node = parseOr();
+				expect(")");
+				return node;
+			}
+			return parseCondition();
+		}
+
+		private int parseCondition() {
+			String featureName;
+			String name = parseName();
+			if (name.equals("match") && accept("(")) {
+				skipWs();
+				if (pos >= expr.length() || expr.charAt(pos) != '"') {
+					throw error("Expected quoted pattern");
+				}
+				int end = expr.indexOf('"', pos + 1);
+				if (end < 0) {
+					throw error("Unterminated pattern");
+				}
+				String pattern = TreePattern.parse(expr.substring(pos + 1, end)).toString();
+				pos = end + 1;
+				expect(")");
+				featureName = patternFeatures.get(pattern);
+				if (featureName == null) {
+					featureName = newPatterns.computeIfAbsent(pattern,
+							p -> "pattern.p" + (patternFeatures.size() + newPatterns.size()));
+				}
+			} else if (name.equals("ident") && accept("(")) {
+				String ident = parseName();
+				expect(")");
+				featureName = "ident." + ident;
+				if (!identifierFeatures.containsKey(ident)) {
+					newIdentifiers.put(ident, featureName);
+				}
+			} else {
+				featureName = name;
+				if (standardSchema.indexOf(name) < 0 && !patternFeatures.containsValue(name)
+						&& !identifierFeatures.containsValue(name)) {
+					throw error("Unknown feature " + name);
+				}
+			}
+
+			// Comparison: > and < are normalized so that equivalent conditions are shared
+			int op = GE;
+			long operand = 1;
+			if (accept(">=")) {
+				operand = parseInt();
+			} else if (accept(">")) {
+				operand = parseInt() + 1L;
+			} else if (accept("<=")) {
+				op = LE;
+				operand = parseInt();
+			} else if (accept("<")) {
+				op = LE;
+				operand = parseInt() - 1L;
+			} else if (accept("==")) {
+				op = EQ;
+				operand = parseInt();
+			} else if (accept("!=")) {
+				op = NE;
+				operand = parseInt();
+			}
+			return getNode(CONDITION, -1, -1, featureName, op, operand);
+		}
+
+		private String parseName() {
+			skipWs();
+			int start = pos;
+			while (pos < expr.length() && (Character.isLetterOrDigit(expr.charAt(pos))
+					|| expr.charAt(pos) == '_' || expr.charAt(pos) == '.')) {
+				pos++;
+			}
+			if (pos == start) {
+				throw error("Expected feature name");
+			}
+			return expr.substring(start, pos);
+		}
+
+		private int parseInt() {
+			skipWs();
+			int start = pos;
+			if (pos < expr.length() && expr.charAt(pos) == '-') {
+				pos++;
+			}
+			while (pos < expr.length() && Character.isDigit(expr.charAt(pos))) {
+				pos++;
+			}
+			try {
+				return Integer.parseInt(expr.substring(start, pos));
+			} catch (NumberFormatException e) {
+				throw error("Expected integer");
+			}
+		}
+
+		private boolean accept(String s) {
+			skipWs();
+			if (expr.startsWith(s, pos)) {
+				pos += s.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(String s) {
+			if (!accept(s)) {
+				throw error("Expected " + s);
+			}
+		}
+
+		private void skipWs() {
+			while (pos < expr.length() && Character.isWhitespace(expr.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String msg) {
+			return new IllegalArgumentException(msg + " at offset " + pos + " in rule: " + expr);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: SnapshotClassifier <rules file> <archive>...");
+			System.exit(1);
+		}
+
+		// Each line of the rules file is "name: expression"
+		SnapshotClassifier classifier = new SnapshotClassifier();
+		try (BufferedReader r = new BufferedReader(new FileReader(args[0]))) {
+			String line;
+			while ((line = r.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				int colon = line.indexOf(':');
+				if (colon < 0) {
+					throw new IOException("Invalid rule: " + line);
+				}
+				classifier.addRule(line.substring(0, colon).trim(), line.substring(colon + 1));
+			}
+		}
+
+		int numRules = classifier.getNumRules();
+		int[] totals = new int[numRules];
+		for (int i = 1; i < args.length; i++) {
+			try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(args[i]))) {
+				Snapshot snapshot;
+				while ((snapshot = source.readNext()) != null) {
+					try (Reader r = snapshot.createReader()) {
+						TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+						classifier.classify(seq, new CParser(seq).parse());
+					} catch (LexerException | ParserException e) {
+						System.out.println(snapshot.getName() + ": (not parsed)");
+						continue;
+					}
+					StringBuilder buf = new StringBuilder();
+					buf.append(snapshot.getName()).append(':');
+					for (int rule = 0; rule < numRules; rule++) {
+						if (classifier.isMatched(rule)) {
+							buf.append(' ').append(classifier.getRuleName(rule));
+							totals[rule]++;
+						}
+					}
+					System.out.println(buf);
+				}
+			}
+		}
+		for (int rule = 0; rule < numRules; rule++) {
+			System.out.println(classifier.getRuleName(rule) + ": " + totals[rule]);
+		}
+	}
+}
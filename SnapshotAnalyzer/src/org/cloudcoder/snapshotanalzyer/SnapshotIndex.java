@@ -0,0 +1,367 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverted index over a corpus of snapshots: for each {@link NodeType},
+ * each {@link TokenType}, and (optionally) each identifier, a
+ * {@link SnapshotBitmap} of the ids of the snapshots that contain it.
+ * Queries combining postings with AND, OR, and NOT narrow down the
+ * snapshots that need to be re-parsed to answer a structural question.
+ *
+ * Identifiers are keyed by their {@link SymbolTable} id.  If the tokens
+ * passed to {@link #add(int, TokenSequence, Node)} carry symbol ids,
+ * they must have been assigned by the index's symbol table.
+ *
+ * The postings returned by the index, and the results of queries, are
+ * copies, which the caller may modify.  Building an index is not
+ * thread-safe.
+ */
+public class SnapshotIndex {
+	private static final int MAGIC = 0x53494458; // "SIDX"
+	private static final int VERSION = 1;
+
+	private final SymbolTable symbols;
+	private final boolean indexIdentifiers;
+	private final SnapshotBitmap all;
+	private final SnapshotBitmap[] nodeTypePostings;
+	private final SnapshotBitmap[] tokenTypePostings;
+	private final Map<Integer, SnapshotBitmap> identifierPostings;
+
+	public SnapshotIndex() {
+		this(new SymbolTable(), true);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param symbols          symbol table for identifiers
+	 * @param indexIdentifiers true if identifiers should be indexed
+	 */
+	public SnapshotIndex(SymbolTable symbols, boolean indexIdentifiers) {
+		this.symbols = symbols;
+		this.indexIdentifiers = indexIdentifiers;
+		this.all = new SnapshotBitmap();
+		this.nodeTypePostings = new SnapshotBitmap[NodeType.values().length];
+		for (int i = 0; i < nodeTypePostings.length; i++) {
+			nodeTypePostings[i] = new SnapshotBitmap();
+		}
+		this.tokenTypePostings = new SnapshotBitmap[TokenType.values().length];
+		for (int i = 0; i < tokenTypePostings.length; i++) {
+			tokenTypePostings[i] = new SnapshotBitmap();
+		}
+		this.identifierPostings = new HashMap<>();
+	}
+
+	/**
+	 * Add a snapshot to the index.  Adding snapshots in order of
+	 * increasing id is most efficient.
+	 *
+	 * @param snapshotId the snapshot id
+	 * @param seq        the snapshot's tokens
+	 * @param unit       the snapshot's parse tree, or null if it could not be parsed
+	 */
+	public void add(int snapshotId, TokenSequence seq, Node unit) {
+		all.add(snapshotId);
+		for (int i = 0; i < seq.size(); i++) {
+			Token t = seq.get(i);
+			tokenTypePostings[t.getTokenType().ordinal()].add(snapshotId);
+			if (indexIdentifiers && t.getTokenType() == TokenType.IDENT) {
+				int symbolId = t.getSymbolId();
+				if (symbolId < 0) {
+					symbolId = symbols.intern(t.getLexeme());
+				}
+				getIdentifierPostings(symbolId).add(snapshotId);
+			}
+		}
+		if (unit != null) {
+			TreeCursor cursor = new TreeCursor(unit);
+			do {
+				nodeTypePostings[cursor.getNode().getNodeType().ordinal()].add(snapshotId);
+			} while (cursor.next(false));
+		}
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
+	/**
+	 * @return the ids of all snapshots in the index
+	 */
+	public SnapshotBitmap getAll() {
+		return all.copy();
+	}
+
+	public SnapshotBitmap getPostings(NodeType nodeType) {
+		return nodeTypePostings[nodeType.ordinal()].copy();
+	}
+
+	public SnapshotBitmap getPostings(TokenType tokenType) {
+		return tokenTypePostings[tokenType.ordinal()].copy();
+	}
+
+	/**
+	 * @param name an identifier
+	 * @return the ids of the snapshots containing the identifier
+	 */
+	public SnapshotBitmap getIdentifierPostings(String name) {
+		return findIdentifierPostings(name).copy();
+	}
+
+	// The index's own postings for an identifier (or an empty set)
+	private SnapshotBitmap findIdentifierPostings(String name) {
+		int symbolId = symbols.lookup(name);
+		SnapshotBitmap postings = symbolId >= 0 ? identifierPostings.get(symbolId) : null;
+		return postings != null ? postings : new SnapshotBitmap();
+	}
+
+	/**
+	 * Evaluate a query.  A query is a boolean expression over terms
+	 * <code>node:NODE_TYPE</code>, <code>token:TOKEN_TYPE</code>,
+	 * and <code>ident:name</code>, using the operators <code>&amp;</code>
+	 * (AND), <code>|</code> (OR), <code>!</code> (NOT), and parentheses.
+	 * For example: <code>node:DO_WHILE_STATEMENT &amp; !ident:printf</code>.
+	 *
+	 * @param query the query
+	 * @return the ids of the matching snapshots
+	 */
+	public SnapshotBitmap query(String query) {
+		return new QueryParser(query).parse();
+	}
+
+	public void write(File file) throws IOException {
+		VarIntWriter out = new VarIntWriter(1 << 16);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		all.write(out);
+		// Enum constants are stored by name, so that adding
+		// node or token types doesn't invalidate existing indexes
+		for (NodeType nodeType : NodeType.values()) {
+			writeString(out, nodeType.name());
+			nodeTypePostings[nodeType.ordinal()].write(out);
+		}
+		writeString(out, "");
+		for (TokenType tokenType : TokenType.values()) {
+			writeString(out, tokenType.name());
+			tokenTypePostings[tokenType.ordinal()].write(out);
+		}
+		writeString(out, "");
+		out.writeUnsigned(identifierPostings.size());
+		for (Map.Entry<Integer, SnapshotBitmap> entry : identifierPostings.entrySet()) {
+			writeString(out, symbols.getName(entry.getKey()));
+			entry.getValue().write(out);
+		}
+		try (OutputStream os = new FileOutputStream(file)) {
+			out.writeTo(os);
+		}
+	}
+
+	public static SnapshotIndex read(File file) throws IOException {
+		ByteBuffer buf;
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new IOException("Not a snapshot index: " + file);
+		}
+		SnapshotIndex index = new SnapshotIndex();
+		SnapshotBitmap.read(buf).forEach(index.all::add);
+		String name;
+		while (!(name = readString(buf)).isEmpty()) {
+			SnapshotBitmap postings = SnapshotBitmap.read(buf);
+			try {
+				index.nodeTypePostings[NodeType.valueOf(name).ordinal()] = postings;
+			} catch (IllegalArgumentException e) {
+				// Node type no longer exists
+			}
+		}
+		while (!(name = readString(buf)).isEmpty()) {
+			SnapshotBitmap postings = SnapshotBitmap.read(buf);
+			try {
+				index.tokenTypePostings[TokenType.valueOf(name).ordinal()] = postings;
+			} catch (IllegalArgumentException e) {
+				// Token type no longer exists
+			}
+		}
+		int numIdentifiers = VarInt.readUnsigned(buf);
+		for (int i = 0; i < numIdentifiers; i++) {
+			name = readString(buf);
+			index.identifierPostings.put(index.symbols.intern(name), SnapshotBitmap.read(buf));
+		}
+		return index;
+	}
+
+	private SnapshotBitmap getIdentifierPostings(int symbolId) {
+		SnapshotBitmap postings = identifierPostings.get(symbolId);
+		if (postings == null) {
+			postings = new SnapshotBitmap();
+			identifierPostings.put(symbolId, postings);
+		}
+		return postings;
+	}
+
+	private static void writeString(VarIntWriter out, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeUnsigned(bytes.length);
+		out.writeBytes(bytes, 0, bytes.length);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[VarInt.readUnsigned(buf)];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Recursive descent parser/evaluator for queries.
+	 * NOT binds tighter than AND, which binds tighter than OR.
+	 */
+	private class QueryParser {
+		private final String query;
+		private int pos;
+		private SnapshotBitmap lastTerm;
+
+		public QueryParser(String query) {
+			this.query = query;
+			this.pos = 0;
+		}
+
+		public SnapshotBitmap parse() {
+			SnapshotBitmap result = parseOr();
+			skipWs();
+			if (pos < query.length()) {
+				throw new IllegalArgumentException("Unexpected character at offset " + pos + " in query: " + query);
+			}
+			// The operators create new sets, but a query which is a
+			// single term evaluates to the index's own postings
+			return result == lastTerm ? result.copy() : result;
+		}
+
+		private SnapshotBitmap parseOr() {
+			SnapshotBitmap result = parseAnd();
+			while (accept('|')) {
+				result = SnapshotBitmap.or(result, parseAnd());
+			}
+			return result;
+		}
+
+		private SnapshotBitmap parseAnd() {
+			SnapshotBitmap result = parseNot();
+			while (accept('&')) {
+				if (accept('!')) {
+					// a & !b is evaluated directly as a difference
+					result = SnapshotBitmap.andNot(result, parseNot());
+				} else {
+					result = SnapshotBitmap.and(result, parseNot());
+				}
+			}
+			return result;
+		}
+
+		private SnapshotBitmap parseNot() {
+			if (accept('!')) {
+				return SnapshotBitmap.andNot(all, parseNot());
+			}
+			if (accept('(')) {
+				SnapshotBitmap result = parseOr();
+				if (!accept(')')) {
+					throw new IllegalArgumentException("Missing ) in query: " + query);
+				}
+				return result;
+			}
+			return parseTerm();
+		}
+
+		private SnapshotBitmap parseTerm() {
+			skipWs();
+			int start = pos;
+			while (pos < query.length() && (Character.isLetterOrDigit(query.charAt(pos))
+					|| query.charAt(pos) == '_' || query.charAt(pos) == ':')) {
+				pos++;
+			}
+			String term = query.substring(start, pos);
+			int colon = term.indexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("Expected node:, token:, or ident: term at offset " + start + " in query: " + query);
+			}
+			String kind = term.substring(0, colon), name = term.substring(colon + 1);
+			try {
+				switch (kind) {
+				case "node": lastTerm = nodeTypePostings[NodeType.valueOf(name).ordinal()]; break;
+				case "token": lastTerm = tokenTypePostings[TokenType.valueOf(name).ordinal()]; break;
+				case "ident": lastTerm = findIdentifierPostings(name); break;
+				default: throw new IllegalArgumentException("Unknown term type " + kind);
+				}
+				return lastTerm;
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Invalid term " + term + " in query: " + query, e);
+			}
+		}
+
+		private boolean accept(char c) {
+			skipWs();
+			if (pos < query.length() && query.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWs() {
+			while (pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length >= 3 && args[0].equals("build")) {
+			// Snapshot ids are assigned in order, as in BatchAnalyzer
+			SnapshotIndex index = new SnapshotIndex();
+			int snapshotId = 0, errors = 0;
+			for (int i = 2; i < args.length; i++) {
+				try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(args[i]))) {
+					Snapshot snapshot;
+					while ((snapshot = source.readNext()) != null) {
+						try (Reader r = snapshot.createReader()) {
+							TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r, index.getSymbolTable())));
+							Node unit;
+							try {
+								unit = new CParser(seq).parse();
+							} catch (ParserException e) {
+								unit = null;
+							}
+							index.add(snapshotId, seq, unit);
+						} catch (LexerException e) {
+							// Snapshot can't be indexed (e.g., it ends within a literal)
+							errors++;
+						}
+						snapshotId++;
+					}
+				}
+			}
+			index.write(new File(args[1]));
+			System.out.println(index.getAll().getCardinality() + " snapshots indexed (" + errors + " could not be lexed)");
+		} else if (args.length == 3 && args[0].equals("query")) {
+			SnapshotIndex index = read(new File(args[1]));
+			SnapshotBitmap result = index.query(args[2]);
+			System.out.println(result.getCardinality() + " matching snapshots");
+			result.forEach(id -> System.out.println(id));
+		} else {
+			System.err.println("Usage: SnapshotIndex build <index file> <archive>...");
+			System.err.println("       SnapshotIndex query <index file> <query>");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes Merkle-style structural hashes of the nodes of a parse tree,
+ * bottom-up in one traversal.  A node's hash combines its {@link NodeType},
+ * its children's hashes, and the tokens within the node not covered by
+ * any child, in order.  Subtrees with equal hashes are (with very high
+ * probability) identical, so identical functions or blocks can be found
+ * across snapshots by hash lookup, and subtrees unchanged between two
+ * versions of a snapshot can be recognized.
+ *
+ * Token content can be normalized: in that case identifiers and literals
+ * contribute only their token type, so subtrees which differ only in
+ * names and constants get the same hash.
+ *
+ * A StructuralHasher may be reused, but is not thread-safe.
+ */
+public class StructuralHasher {
+	private static final long CHILD_TAG = 0x6368696c64L;
+	private static final long TOKEN_TAG = 0x746f6b656eL;
+
+	private final boolean normalize;
+	private final TreeWalker walker;
+	private final ITreeVisitor visitor;
+	private TokenSequence seq;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param normalize true if identifiers and literals should be hashed by token type only
+	 */
+	public StructuralHasher(boolean normalize) {
+		this.normalize = normalize;
+		this.walker = new TreeWalker();
+		this.visitor = new ITreeVisitor() {
+			@Override
+			public boolean enter(Node node, int depth) {
+				return true;
+			}
+
+			@Override
+			public void exit(Node node, int depth) {
+				// The children's hashes were computed when they were exited
+				node.setStructuralHash(computeHash(node));
+			}
+		};
+	}
+
+	/**
+	 * Compute the structural hashes of all nodes of a parse tree.
+	 *
+	 * @param seq  the tokens the tree was parsed from
+	 * @param root the root of the tree
+	 * @return the hash of the root
+	 */
+	public long hash(TokenSequence seq, Node root) {
+		this.seq = seq;
+		try {
+			walker.walk(root, visitor);
+		} finally {
+			this.seq = null;
+		}
+		return root.getStructuralHash();
+	}
+
+	private long computeHash(Node node) {
+		long h = mix(0x9E3779B97F4A7C15L, node.getNodeType().ordinal());
+		int pos = node.getStartPos();
+		for (Node child : node.getChildren()) {
+			if (child.getStartPos() >= 0) {
+				h = hashTokens(h, pos, child.getStartPos());
+				pos = Math.max(pos, child.getEndPos());
+			}
+			h = mix(mix(h, CHILD_TAG), child.getStructuralHash());
+		}
+		h = hashTokens(h, pos, node.getEndPos());
+		return finish(h);
+	}
+
+	private long hashTokens(long h, int start, int end) {
+		for (int i = Math.max(start, 0); i < end; i++) {
+			Token t = seq.get(i);
+			TokenType type = t.getTokenType();
+			h = mix(mix(h, TOKEN_TAG), type.ordinal());
+			if (!normalize || !isNormalized(type)) {
+				h = mix(h, t.getLexeme().hashCode());
+			}
+		}
+		return h;
+	}
+
+	private static boolean isNormalized(TokenType type) {
+		switch (type) {
+		case IDENT:
+		case LITERAL_INT:
+		case LITERAL_FLOAT:
+		case LITERAL_DOUBLE:
+		case LITERAL_CHAR:
+		case LITERAL_STRING:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static long mix(long h, long x) {
+		h = (h ^ x) * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+
+	private static long finish(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		// Report blocks (such as function bodies) which occur (up to
+		// renaming) more than once among the files named on the command line
+		StructuralHasher hasher = new StructuralHasher(true);
+		Map<Long, List<String>> occurrences = new HashMap<>();
+		for (String arg : args) {
+			try (Reader r = new FileReader(arg)) {
+				TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+				Node unit = new CParser(seq).parse();
+				hasher.hash(seq, unit);
+				TreeCursor cursor = new TreeCursor(unit);
+				do {
+					Node node = cursor.getNode();
+					if (node.getNodeType() == NodeType.BLOCK_STATEMENT && node.getEndPos() - node.getStartPos() > 4) {
+						Token first = seq.get(node.getStartPos());
+						String where = arg + ":" + first.getPosition().getRow() + ":" + first.getPosition().getColumn();
+						List<String> list = occurrences.get(node.getStructuralHash());
+						if (list == null) {
+							list = new ArrayList<>();
+							occurrences.put(node.getStructuralHash(), list);
+						}
+						list.add(where);
+					}
+				} while (cursor.next(false));
+			}
+		}
+		for (Map.Entry<Long, List<String>> entry : occurrences.entrySet()) {
+			if (entry.getValue().size() > 1) {
+				System.out.println(String.format("%016x", entry.getKey()) + ": " + entry.getValue());
+			}
+		}
+	}
+}
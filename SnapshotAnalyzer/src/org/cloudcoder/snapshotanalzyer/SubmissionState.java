@@ -0,0 +1,52 @@
+package org.cloudcoder.snapshotanalzyer;
+
+/**
+ * The analysis state of one snapshot of a submission, as kept by a
+ * {@link SubmissionStreamProcessor}: its tokens, parse tree and features.
+ * Each submission has two states (the current and previous snapshots),
+ * which are swapped and reused as the submission's snapshots are processed.
+ */
+public class SubmissionState {
+	private final long submissionId;
+	private final FeatureVector features;
+	private String name;
+	private long timestamp;
+	private TokenSequence tokens;
+	private Node tree;
+
+	public SubmissionState(long submissionId, FeatureVector features) {
+		this.submissionId = submissionId;
+		this.features = features;
+	}
+
+	public long getSubmissionId() {
+		return submissionId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public TokenSequence getTokens() {
+		return tokens;
+	}
+
+	public Node getTree() {
+		return tree;
+	}
+
+	public FeatureVector getFeatures() {
+		return features;
+	}
+
+	void set(String name, long timestamp, TokenSequence tokens, Node tree) {
+		this.name = name;
+		this.timestamp = timestamp;
+		this.tokens = tokens;
+		this.tree = tree;
+	}
+}
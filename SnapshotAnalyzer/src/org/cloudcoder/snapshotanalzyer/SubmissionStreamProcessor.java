@@ -0,0 +1,340 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Processes a stream of snapshots submission by submission, reporting
+ * for each snapshot the change in its features since the submission's
+ * previous snapshot (see {@link ISubmissionDeltaHandler}).
+ *
+ * Only the state of each submission's previous snapshot is kept, so
+ * memory does not grow with the length of a submission's edit history.
+ * If the source delivers the snapshots of each submission contiguously
+ * (as {@link JdbcSnapshotSource} does by default), a submission's state
+ * is discarded as soon as its last snapshot has been processed.
+ *
+ * Snapshots are processed by a fixed number of worker threads.  Each
+ * submission is assigned to one worker (by its id), so the snapshots of a
+ * submission are processed in order without any shared lock, while the
+ * snapshots of different submissions are processed in parallel.  Each
+ * worker has its own queue and a fixed pool of {@link Snapshot} buffers,
+ * which also limits how far the reader can get ahead of a slow worker.
+ * Snapshots with an unknown submission id (-1) are processed as
+ * independent single-snapshot submissions.
+ */
+public class SubmissionStreamProcessor {
+	public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+	private final int numWorkers;
+	private final int queueCapacity;
+	private final Supplier<FeatureExtractionEngine> engineFactory;
+	private final ISubmissionDeltaHandler handler;
+	private final boolean contiguous;
+	private final AtomicLong numProcessed;
+	private final AtomicLong numErrors;
+
+	// A queued unit of work: a snapshot, or the end of a submission
+	private static class WorkItem {
+		final Snapshot snapshot = new Snapshot();
+		boolean endOfSubmission;
+	}
+
+	// Sentinel marking the end of the stream of work items
+	private static final WorkItem END = new WorkItem();
+
+	public SubmissionStreamProcessor(int numWorkers, ISubmissionDeltaHandler handler) {
+		this(numWorkers, DEFAULT_QUEUE_CAPACITY, FeatureExtractionEngine::createStandard, handler, true);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param numWorkers    number of worker threads
+	 * @param queueCapacity maximum number of snapshots queued for each worker
+	 * @param engineFactory creates the feature extraction engine for each worker:
+	 *                      all engines must have the same schema
+	 * @param handler       handler to receive the feature deltas
+	 * @param contiguous    true if the snapshots of each submission are contiguous
+	 *                      in the source, so a submission's state can be discarded
+	 *                      when the next submission begins
+	 */
+	public SubmissionStreamProcessor(int numWorkers, int queueCapacity,
+			Supplier<FeatureExtractionEngine> engineFactory, ISubmissionDeltaHandler handler, boolean contiguous) {
+		if (numWorkers < 1) {
+			throw new IllegalArgumentException("numWorkers must be at least 1");
+		}
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queueCapacity must be at least 1");
+		}
+		this.numWorkers = numWorkers;
+		this.queueCapacity = queueCapacity;
+		this.engineFactory = engineFactory;
+		this.handler = handler;
+		this.contiguous = contiguous;
+		this.numProcessed = new AtomicLong();
+		this.numErrors = new AtomicLong();
+	}
+
+	/**
+	 * Process all of the snapshots from given source.  Returns when
+	 * all of them have been processed.
+	 *
+	 * @param source the snapshot source
+	 * @throws IOException
+	 */
+	public void process(ISnapshotSource source) throws IOException {
+		Worker[] workers = new Worker[numWorkers];
+		for (int i = 0; i < numWorkers; i++) {
+			workers[i] = new Worker(engineFactory.get());
+			workers[i].thread = new Thread(workers[i], "submission-worker-" + i);
+			workers[i].thread.setDaemon(true);
+			workers[i].thread.start();
+		}
+
+		Throwable error = null;
+		try {
+			long prevId = -1L;
+			int next = 0;
+			Snapshot snapshot;
+			while ((snapshot = source.readNext()) != null) {
+				long id = snapshot.getSubmissionId();
+				if (contiguous && id != prevId && prevId != -1L) {
+					workers[workerFor(prevId)].endSubmission(prevId);
+				}
+				// Round-robin snapshots with no submission id
+				int w = (id != -1L) ? workerFor(id) : next++ % numWorkers;
+				workers[w].enqueue(snapshot);
+				prevId = id;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = new IOException("Interrupted queueing snapshot", e);
+		} catch (IOException | RuntimeException e) {
+			error = e;
+		} finally {
+			for (Worker worker : workers) {
+				worker.finish();
+			}
+		}
+
+		for (Worker worker : workers) {
+			if (error == null) {
+				error = worker.error;
+			}
+		}
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error != null) {
+			throw new IOException("Error processing snapshots", error);
+		}
+	}
+
+	public long getNumProcessed() {
+		return numProcessed.get();
+	}
+
+	public long getNumErrors() {
+		return numErrors.get();
+	}
+
+	private int workerFor(long submissionId) {
+		long h = submissionId * 0x9E3779B97F4A7C15L;
+		return (int) ((h >>> 32) % numWorkers);
+	}
+
+	// The previous state of a submission, and a spare state to fill
+	// with the current snapshot: the two are swapped after each snapshot
+	private static class History {
+		SubmissionState previous;
+		SubmissionState spare;
+	}
+
+	private class Worker implements Runnable {
+		private final FeatureExtractionEngine engine;
+		private final FeatureVector delta;
+		private final BlockingQueue<WorkItem> free;
+		private final BlockingQueue<WorkItem> full;
+		private final Map<Long, History> histories;
+		private Thread thread;
+		private volatile Throwable error;
+
+		Worker(FeatureExtractionEngine engine) {
+			this.engine = engine;
+			this.delta = engine.createFeatureVector();
+			// One extra item for the snapshot being processed,
+			// and one extra slot in the full queue for the END sentinel
+			this.free = new ArrayBlockingQueue<>(queueCapacity + 1);
+			this.full = new ArrayBlockingQueue<>(queueCapacity + 2);
+			for (int i = 0; i < queueCapacity + 1; i++) {
+				free.add(new WorkItem());
+			}
+			this.histories = new HashMap<>();
+		}
+
+		void enqueue(Snapshot snapshot) throws InterruptedException {
+			WorkItem item = take();
+			if (item == null) {
+				return;
+			}
+			Snapshot copy = item.snapshot;
+			copy.setName(snapshot.getName());
+			copy.setSubmissionId(snapshot.getSubmissionId());
+			copy.setTimestamp(snapshot.getTimestamp());
+			copy.setData(snapshot.getData(), 0, snapshot.getLength());
+			item.endOfSubmission = false;
+			full.put(item);
+		}
+
+		void endSubmission(long submissionId) throws InterruptedException {
+			WorkItem item = take();
+			if (item == null) {
+				return;
+			}
+			item.snapshot.setSubmissionId(submissionId);
+			item.endOfSubmission = true;
+			full.put(item);
+		}
+
+		// Wait for a free item: returns null if the worker has failed,
+		// in which case its queue is no longer drained
+		private WorkItem take() throws InterruptedException {
+			while (error == null) {
+				WorkItem item = free.poll(100, TimeUnit.MILLISECONDS);
+				if (item != null) {
+					return item;
+				}
+			}
+			return null;
+		}
+
+		void finish() {
+			// There is always room for the sentinel
+			full.offer(END);
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					WorkItem item = full.take();
+					if (item == END) {
+						break;
+					}
+					if (item.endOfSubmission) {
+						histories.remove(item.snapshot.getSubmissionId());
+					} else {
+						process(item.snapshot);
+					}
+					free.add(item);
+				}
+			} catch (InterruptedException e) {
+				error = e;
+			} catch (IOException | RuntimeException e) {
+				error = e;
+			}
+		}
+
+		private void process(Snapshot snapshot) throws IOException {
+			TokenSequence seq;
+			Node unit;
+			try (Reader r = snapshot.createReader()) {
+				seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+				unit = new CParser(seq).parse();
+			} catch (LexerException | ParserException e) {
+				// The previous state is kept, so the next snapshot
+				// which parses is compared against it
+				numErrors.incrementAndGet();
+				return;
+			}
+
+			long id = snapshot.getSubmissionId();
+			History history = (id != -1L) ? histories.get(id) : null;
+			if (history == null) {
+				history = new History();
+				if (id != -1L) {
+					histories.put(id, history);
+				}
+			}
+			if (history.spare == null) {
+				history.spare = new SubmissionState(id, engine.createFeatureVector());
+			}
+
+			SubmissionState current = history.spare;
+			SubmissionState previous = history.previous;
+			FeatureVector features = current.getFeatures();
+			engine.extract(seq, unit, features);
+			current.set(snapshot.getName(), snapshot.getTimestamp(), seq, unit);
+
+			int[] cur = features.getValues();
+			int[] prev = (previous != null) ? previous.getFeatures().getValues() : null;
+			for (int i = 0; i < cur.length; i++) {
+				delta.set(i, prev != null ? cur[i] - prev[i] : cur[i]);
+			}
+			handler.snapshotProcessed(previous, current, delta);
+			numProcessed.incrementAndGet();
+
+			// The previous state's tokens and tree are released
+			// when it is reused for the next snapshot
+			history.previous = current;
+			history.spare = previous;
+			if (previous != null) {
+				previous.set(null, 0L, null, null);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException, SQLException {
+		if (args.length < 1) {
+			System.err.println("Usage: SubmissionStreamProcessor <archive or JDBC url>...");
+			System.exit(1);
+		}
+		// Print the features which changed in each snapshot
+		final FeatureSchema schema = FeatureExtractionEngine.createStandard().getSchema();
+		ISubmissionDeltaHandler handler = (previous, current, delta) -> {
+			StringBuilder buf = new StringBuilder();
+			buf.append(current.getSubmissionId()).append(' ').append(current.getName()).append(':');
+			for (int i = 0; i < delta.size(); i++) {
+				if (delta.get(i) != 0) {
+					buf.append(' ').append(schema.getName(i)).append(delta.get(i) > 0 ? "+" : "").append(delta.get(i));
+				}
+			}
+			synchronized (System.out) {
+				System.out.println(buf);
+			}
+		};
+		int numWorkers = Runtime.getRuntime().availableProcessors();
+		SubmissionStreamProcessor processor = new SubmissionStreamProcessor(numWorkers, handler);
+		for (String arg : args) {
+			if (arg.startsWith("jdbc:")) {
+				try (Connection conn = DriverManager.getConnection(arg);
+						JdbcSnapshotSource source = new JdbcSnapshotSource(conn)) {
+					processor.process(source);
+				}
+			} else {
+				try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(arg))) {
+					processor.process(source);
+				}
+			}
+		}
+		System.err.println(processor.getNumProcessed() + " snapshots processed, " + processor.getNumErrors() + " could not be parsed");
+	}
+}
@@ -0,0 +1,193 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.Arrays;
+
+/**
+ * Concurrent intern table which assigns a stable int id to each
+ * distinct identifier, the first time it is seen.  Lookups take
+ * a CharSequence, so the lexer can check its scratch buffer against the
+ * table without creating a String for identifiers that have been
+ * seen before: only one String per distinct identifier is kept.
+ *
+ * The table is split into independently locked stripes, each an
+ * open-addressed hash table.  The low bits of an id are the index of its
+ * stripe, so ids are unique across stripes, but not contiguous.
+ */
+public class SymbolTable {
+	private static final int STRIPE_BITS = 4;
+	private static final int NUM_STRIPES = 1 << STRIPE_BITS;
+	private static final int STRIPE_MASK = NUM_STRIPES - 1;
+
+	private final Stripe[] stripes;
+
+	public SymbolTable() {
+		this.stripes = new Stripe[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) {
+			stripes[i] = new Stripe(i);
+		}
+	}
+
+	/**
+	 * Get the id of given name, assigning a new id if the name hasn't been seen before.
+	 *
+	 * @param name the name
+	 * @return the id of the name
+	 */
+	public int intern(CharSequence name) {
+		int hash = hash(name);
+		return stripes[mix(hash) & STRIPE_MASK].intern(name, hash);
+	}
+
+	/**
+	 * Get the id of given name, without adding it to the table.
+	 *
+	 * @param name the name
+	 * @return the id of the name, or -1 if the name is not in the table
+	 */
+	public int lookup(CharSequence name) {
+		int hash = hash(name);
+		return stripes[mix(hash) & STRIPE_MASK].lookup(name, hash);
+	}
+
+	/**
+	 * Get the (canonical) name for given id.
+	 *
+	 * @param id an id returned by {@link #intern(CharSequence)}
+	 * @return the name
+	 */
+	public String getName(int id) {
+		return stripes[id & STRIPE_MASK].getName(id >>> STRIPE_BITS);
+	}
+
+	/**
+	 * @return the number of distinct names in the table
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return an upper bound on ids assigned so far (all ids are less than this value)
+	 */
+	public int getIdLimit() {
+		int max = 0;
+		for (Stripe stripe : stripes) {
+			max = Math.max(max, stripe.size());
+		}
+		return max << STRIPE_BITS;
+	}
+
+	// Same as String.hashCode(), so that hash codes cached in keys can be compared
+	private static int hash(CharSequence name) {
+		int h = 0;
+		for (int i = 0; i < name.length(); i++) {
+			h = 31*h + name.charAt(i);
+		}
+		return h;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matches(String key, CharSequence name) {
+		int n = key.length();
+		if (n != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			if (key.charAt(i) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class Stripe {
+		private final int stripeIndex;
+		private String[] keys;  // open-addressed hash table of names
+		private int[] ids;      // local index of each key in the table
+		private String[] names; // names by local index
+		private int size;
+
+		public Stripe(int stripeIndex) {
+			this.stripeIndex = stripeIndex;
+			this.keys = new String[64];
+			this.ids = new int[64];
+			this.names = new String[32];
+			this.size = 0;
+		}
+
+		public synchronized int intern(CharSequence name, int hash) {
+			int slot = findSlot(keys, name, hash);
+			if (keys[slot] != null) {
+				return toId(ids[slot]);
+			}
+
+			String key = name.toString();
+			int index = size++;
+			if (index >= names.length) {
+				names = Arrays.copyOf(names, names.length * 2);
+			}
+			names[index] = key;
+			keys[slot] = key;
+			ids[slot] = index;
+			if (size * 2 > keys.length) {
+				rehash();
+			}
+			return toId(index);
+		}
+
+		public synchronized int lookup(CharSequence name, int hash) {
+			int slot = findSlot(keys, name, hash);
+			return keys[slot] != null ? toId(ids[slot]) : -1;
+		}
+
+		public synchronized String getName(int index) {
+			if (index >= size) {
+				throw new IllegalArgumentException("Unknown symbol id");
+			}
+			return names[index];
+		}
+
+		public synchronized int size() {
+			return size;
+		}
+
+		private int toId(int index) {
+			return (index << STRIPE_BITS) | stripeIndex;
+		}
+
+		private static int findSlot(String[] keys, CharSequence name, int hash) {
+			int mask = keys.length - 1;
+			int slot = (mix(hash) >>> STRIPE_BITS) & mask;
+			while (true) {
+				String key = keys[slot];
+				if (key == null || (key.hashCode() == hash && matches(key, name))) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		private void rehash() {
+			String[] oldKeys = keys;
+			int[] oldIds = ids;
+			keys = new String[oldKeys.length * 2];
+			ids = new int[oldKeys.length * 2];
+			for (int i = 0; i < oldKeys.length; i++) {
+				String key = oldKeys[i];
+				if (key != null) {
+					int slot = findSlot(keys, key, key.hashCode());
+					keys[slot] = key;
+					ids[slot] = oldIds[i];
+				}
+			}
+		}
+	}
+}
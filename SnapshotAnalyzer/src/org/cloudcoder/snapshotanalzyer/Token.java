@@ -4,11 +4,17 @@ public class Token {
 	private final TokenType tokenType;
 	private final String lexeme;
 	private final Position position;
+	private final int symbolId;
 	
 	public Token(TokenType tokenType, String lexeme, Position position) {
+		this(tokenType, lexeme, position, -1);
+	}
+	
+	public Token(TokenType tokenType, String lexeme, Position position, int symbolId) {
 		this.tokenType = tokenType;
 		this.lexeme = lexeme;
 		this.position = position;
+		this.symbolId = symbolId;
 	}
 	
 	public TokenType getTokenType() {
@@ -22,4 +28,12 @@ public class Token {
 	public Position getPosition() {
 		return position;
 	}
+	
+	/**
+	 * @return the {@link SymbolTable} id of an identifier, or -1 if the
+	 *         token is not an identifier or identifiers were not interned
+	 */
+	public int getSymbolId() {
+		return symbolId;
+	}
 }
@@ -0,0 +1,254 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk cache of lexer output, so that rerunning an analysis over
+ * the same snapshots doesn't require lexing them again.
+ * There is one cache file per distinct snapshot text, named by the
+ * SHA-256 hash of the text.  The file records the {@link CLexer#VERSION}
+ * that produced it, followed by the token count and then the
+ * type, offset (relative to the end of the previous token), and length
+ * of each token, all as varints.  Lexemes and positions are
+ * reconstructed from the snapshot text.  Cache files written by
+ * a different lexer version (or truncated or corrupt) are stale, and
+ * are replaced.
+ *
+ * If the cache has a {@link SymbolTable}, identifiers are interned
+ * both when lexing and when reading cached tokens.
+ *
+ * A TokenCache may be used by multiple threads.
+ */
+public class TokenCache {
+	private static final int MAGIC = 0x544f4b43; // "TOKC"
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	});
+	private static final ThreadLocal<VarIntWriter> WRITER = ThreadLocal.withInitial(() -> new VarIntWriter(4096));
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final File dir;
+	private final SymbolTable symbols;
+	private final AtomicLong hits, misses, stale;
+
+	public TokenCache(File dir) {
+		this(dir, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dir     the cache directory
+	 * @param symbols the symbol table in which to intern identifiers, or null
+	 */
+	public TokenCache(File dir, SymbolTable symbols) {
+		this.dir = dir;
+		this.symbols = symbols;
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.stale = new AtomicLong();
+	}
+
+	/**
+	 * Get the tokens for given snapshot, from the cache if possible,
+	 * otherwise by lexing the snapshot (and adding the result to the cache.)
+	 *
+	 * @param snapshot the snapshot
+	 * @return the tokens
+	 * @throws IOException if the cache file can't be read or written
+	 * @throws LexerException if the text can't be lexed (including text
+	 *         ending within a literal): the result is not cached
+	 */
+	public List<Token> getTokens(Snapshot snapshot) throws IOException, LexerException {
+		byte[] data = snapshot.getData();
+		int length = snapshot.getLength();
+		MessageDigest digest = DIGEST.get();
+		digest.update(data, 0, length);
+		File file = getFile(digest.digest());
+		return getTokens(file, new String(data, 0, length, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Get the tokens for given text, from the cache if possible,
+	 * otherwise by lexing the text (and adding the result to the cache.)
+	 *
+	 * @param text the text
+	 * @return the tokens
+	 * @throws IOException if the cache file can't be read or written
+	 * @throws LexerException if the text can't be lexed (including text
+	 *         ending within a literal): the result is not cached
+	 */
+	public List<Token> getTokens(String text) throws IOException, LexerException {
+		File file = getFile(DIGEST.get().digest(text.getBytes(StandardCharsets.UTF_8)));
+		return getTokens(file, text);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of cache files found to have been written by a different
+	 *         lexer version, or to be corrupt
+	 */
+	public long getStale() {
+		return stale.get();
+	}
+
+	private File getFile(byte[] hash) {
+		char[] name = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			name[i*2] = HEX[(hash[i] >> 4) & 0xF];
+			name[i*2 + 1] = HEX[hash[i] & 0xF];
+		}
+		String hex = new String(name);
+		return new File(new File(dir, hex.substring(0, 2)), hex + ".tok");
+	}
+
+	private List<Token> getTokens(File file, String text) throws IOException, LexerException {
+		if (file.exists()) {
+			List<Token> tokens = read(file, text);
+			if (tokens != null) {
+				hits.incrementAndGet();
+				return tokens;
+			}
+			stale.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+
+		List<Token> tokens = LexerUtil.readAll(new CLexer(new StringReader(text), symbols));
+		write(file, text, tokens);
+		return tokens;
+	}
+
+	private List<Token> read(File file, String text) throws IOException {
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			if (buf.remaining() < 8 || buf.getInt() != MAGIC || buf.getInt() != CLexer.VERSION) {
+				return null;
+			}
+			return decode(buf, text);
+		} catch (RuntimeException e) {
+			// Truncated or corrupt file: treat it as stale, so it is rewritten
+			return null;
+		}
+	}
+
+	private List<Token> decode(ByteBuffer buf, String text) {
+		int count = VarInt.readUnsigned(buf);
+		List<Token> tokens = new ArrayList<>(Math.min(count, buf.remaining()));
+
+		// Row and column are recomputed by scanning the text
+		// between tokens, just as CLexer counts them
+		int row = 0, column = 0, scanned = 0, end = 0;
+		for (int i = 0; i < count; i++) {
+			TokenType type = TOKEN_TYPES[VarInt.readUnsigned(buf)];
+			int offset = end + VarInt.readUnsigned(buf);
+			int length = VarInt.readUnsigned(buf);
+			for (; scanned < offset; scanned++) {
+				if (text.charAt(scanned) == '\n') {
+					row++;
+					column = 0;
+				} else {
+					column++;
+				}
+			}
+			end = offset + length;
+			Position pos = new Position(row, column, offset);
+			if (symbols != null && type == TokenType.IDENT) {
+				int symbolId = symbols.intern(CharBuffer.wrap(text, offset, end));
+				tokens.add(new Token(type, symbols.getName(symbolId), pos, symbolId));
+			} else {
+				tokens.add(new Token(type, text.substring(offset, end), pos));
+			}
+		}
+		return tokens;
+	}
+
+	private void write(File file, String text, List<Token> tokens) throws IOException {
+		VarIntWriter out = WRITER.get();
+		out.reset();
+		out.writeInt(MAGIC);
+		out.writeInt(CLexer.VERSION);
+		out.writeUnsigned(tokens.size());
+		int end = 0;
+		for (Token t : tokens) {
+			int offset = t.getPosition().getOffset();
+			int length = t.getLexeme().length();
+			if (offset < end || !text.regionMatches(offset, t.getLexeme(), 0, length)) {
+				// Token can't be reconstructed from the text: don't cache
+				return;
+			}
+			out.writeUnsigned(t.getTokenType().ordinal());
+			out.writeUnsigned(offset - end);
+			out.writeUnsigned(length);
+			end = offset + length;
+		}
+
+		// Write to a temp file and rename, so concurrent readers never see a partial file
+		File parent = file.getParentFile();
+		parent.mkdirs();
+		File tmp = File.createTempFile("tok", ".tmp", parent);
+		try {
+			try (OutputStream os = new FileOutputStream(tmp)) {
+				out.writeTo(os);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		// Lex all snapshots in the given archives through the cache
+		if (args.length < 2) {
+			System.err.println("Usage: TokenCache <cache dir> <archive>...");
+			System.exit(1);
+		}
+		TokenCache cache = new TokenCache(new File(args[0]));
+		long numTokens = 0;
+		for (int i = 1; i < args.length; i++) {
+			try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(args[i]))) {
+				Snapshot snapshot;
+				while ((snapshot = source.readNext()) != null) {
+					try {
+						numTokens += cache.getTokens(snapshot).size();
+					} catch (LexerException e) {
+						System.out.println(snapshot.getName() + ": " + e.getMessage());
+					}
+				}
+			}
+		}
+		System.out.println(numTokens + " tokens, " + cache.getHits() + " hits, " + cache.getMisses()
+				+ " misses, " + cache.getStale() + " stale");
+	}
+}
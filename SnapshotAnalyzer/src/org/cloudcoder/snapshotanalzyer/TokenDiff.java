@@ -0,0 +1,288 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the differences between two token sequences, such as
+ * consecutive snapshots of the same submission.
+ *
+ * Each token is packed into an int key combining its token type and
+ * a hash of its lexeme, and the keys are compared using Myers' O(ND)
+ * algorithm, in its linear space (divide and conquer) form, after
+ * stripping the common prefix and suffix.  Two tokens are considered
+ * equal if their keys are equal.  The result is reported as a series
+ * of insert, delete and replace hunks to an {@link IDiffHandler}.
+ *
+ * The working arrays are reused from one diff to the next, so once
+ * they are large enough, computing a diff does not allocate.
+ * A TokenDiff is not thread-safe.
+ */
+public class TokenDiff {
+	private int[] oldKeys, newKeys;
+	private boolean[] deleted, inserted;
+	private int[] forward, backward; // furthest reaching x on each diagonal
+	private final int[] snake;
+
+	public TokenDiff() {
+		this.oldKeys = new int[64];
+		this.newKeys = new int[64];
+		this.deleted = new boolean[64];
+		this.inserted = new boolean[64];
+		this.forward = new int[130];
+		this.backward = new int[130];
+		this.snake = new int[4];
+	}
+
+	/**
+	 * @return the key used to compare a token
+	 */
+	public static int getKey(Token token) {
+		return token.getLexeme().hashCode() * 0x9E3779B1 + token.getTokenType().ordinal();
+	}
+
+	/**
+	 * Diff two token sequences.
+	 *
+	 * @param oldSeq  the old tokens
+	 * @param newSeq  the new tokens
+	 * @param handler receives the hunks
+	 */
+	public void diff(TokenSequence oldSeq, TokenSequence newSeq, IDiffHandler handler) {
+		int n = oldSeq.size(), m = newSeq.size();
+		if (oldKeys.length < n) {
+			oldKeys = new int[Math.max(n, oldKeys.length * 2)];
+		}
+		if (newKeys.length < m) {
+			newKeys = new int[Math.max(m, newKeys.length * 2)];
+		}
+		for (int i = 0; i < n; i++) {
+			oldKeys[i] = getKey(oldSeq.get(i));
+		}
+		for (int i = 0; i < m; i++) {
+			newKeys[i] = getKey(newSeq.get(i));
+		}
+		diffKeys(n, m, handler);
+	}
+
+	/**
+	 * Diff two arrays of keys.
+	 *
+	 * @param oldKeys the old keys
+	 * @param n       the number of old keys
+	 * @param newKeys the new keys
+	 * @param m       the number of new keys
+	 * @param handler receives the hunks
+	 */
+	public void diff(int[] oldKeys, int n, int[] newKeys, int m, IDiffHandler handler) {
+		int[] savedOld = this.oldKeys, savedNew = this.newKeys;
+		this.oldKeys = oldKeys;
+		this.newKeys = newKeys;
+		try {
+			diffKeys(n, m, handler);
+		} finally {
+			this.oldKeys = savedOld;
+			this.newKeys = savedNew;
+		}
+	}
+
+	private void diffKeys(int n, int m, IDiffHandler handler) {
+		if (deleted.length < n) {
+			deleted = new boolean[Math.max(n, deleted.length * 2)];
+		}
+		if (inserted.length < m) {
+			inserted = new boolean[Math.max(m, inserted.length * 2)];
+		}
+		Arrays.fill(deleted, 0, n, false);
+		Arrays.fill(inserted, 0, m, false);
+		int vSize = n + m + 5;
+		if (forward.length < vSize) {
+			forward = new int[Math.max(vSize, forward.length * 2)];
+			backward = new int[forward.length];
+		}
+
+		compare(0, n, 0, m);
+
+		// Report each maximal run of changes as a hunk
+		int i = 0, j = 0;
+		while (i < n || j < m) {
+			if (i < n && j < m && !deleted[i] && !inserted[j]) {
+				i++;
+				j++;
+				continue;
+			}
+			int oldStart = i, newStart = j;
+			while (i < n && deleted[i]) {
+				i++;
+			}
+			while (j < m && inserted[j]) {
+				j++;
+			}
+			EditType type = (i == oldStart) ? EditType.INSERT : (j == newStart) ? EditType.DELETE : EditType.REPLACE;
+			handler.hunk(type, oldStart, i, newStart, j);
+		}
+	}
+
+	// Mark the deleted and inserted keys needed to turn oldKeys[aLo..aHi) into newKeys[bLo..bHi)
+	private void compare(int aLo, int aHi, int bLo, int bHi) {
+		while (aLo < aHi && bLo < bHi && oldKeys[aLo] == newKeys[bLo]) {
+			aLo++;
+			bLo++;
+		}
+		while (aLo < aHi && bLo < bHi && oldKeys[aHi - 1] == newKeys[bHi - 1]) {
+			aHi--;
+			bHi--;
+		}
+		if (aLo == aHi) {
+			Arrays.fill(inserted, bLo, bHi, true);
+		} else if (bLo == bHi) {
+			Arrays.fill(deleted, aLo, aHi, true);
+		} else {
+			// Split at the middle snake of an optimal path.  Since the ends
+			// differ, each half has a strictly shorter edit script.
+			findMiddleSnake(aLo, aHi, bLo, bHi);
+			int xStart = snake[0], yStart = snake[1], xEnd = snake[2], yEnd = snake[3];
+			compare(aLo, aLo + xStart, bLo, bLo + yStart);
+			compare(aLo + xEnd, aHi, bLo + yEnd, bHi);
+		}
+	}
+
+	// Find the middle snake of an optimal path through the edit graph,
+	// storing its start and end (relative to aLo and bLo) in the snake array
+	private void findMiddleSnake(int aLo, int aHi, int bLo, int bHi) {
+		int n = aHi - aLo, m = bHi - bLo;
+		int delta = n - m;
+		boolean odd = (delta & 1) != 0;
+		int max = (n + m + 1) / 2;
+		int off = max + 1;
+		forward[off + 1] = 0;
+		backward[off + 1] = 0;
+		for (int d = 0; d <= max; d++) {
+			// Forward paths
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && forward[off + k - 1] < forward[off + k + 1])) {
+					x = forward[off + k + 1];
+				} else {
+					x = forward[off + k - 1] + 1;
+				}
+				int y = x - k;
+				int x0 = x, y0 = y;
+				while (x < n && y < m && oldKeys[aLo + x] == newKeys[bLo + y]) {
+					x++;
+					y++;
+				}
+				forward[off + k] = x;
+				if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+						&& x + backward[off + delta - k] >= n) {
+					setSnake(x0, y0, x, y);
+					return;
+				}
+			}
+			// Reverse paths: x and y count from the ends of the sequences
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && backward[off + k - 1] < backward[off + k + 1])) {
+					x = backward[off + k + 1];
+				} else {
+					x = backward[off + k - 1] + 1;
+				}
+				int y = x - k;
+				int x0 = x, y0 = y;
+				while (x < n && y < m && oldKeys[aHi - 1 - x] == newKeys[bHi - 1 - y]) {
+					x++;
+					y++;
+				}
+				backward[off + k] = x;
+				if (!odd && delta - k >= -d && delta - k <= d
+						&& x + forward[off + delta - k] >= n) {
+					setSnake(n - x, m - y, n - x0, m - y0);
+					return;
+				}
+			}
+		}
+		throw new IllegalStateException("No middle snake found");
+	}
+
+	private void setSnake(int xStart, int yStart, int xEnd, int yEnd) {
+		snake[0] = xStart;
+		snake[1] = yStart;
+		snake[2] = xEnd;
+		snake[3] = yEnd;
+	}
+
+	/**
+	 * Find the deepest node of a parse tree whose token range contains
+	 * a range of tokens, such as one side of a hunk.
+	 *
+	 * @param root  the root of the parse tree
+	 * @param start start of the token range (inclusive)
+	 * @param end   end of the token range (exclusive)
+	 * @return the deepest node containing the range (the root if no other node does)
+	 */
+	public static Node findEnclosingNode(Node root, int start, int end) {
+		Node node = root;
+		while (true) {
+			Node next = null;
+			List<Node> children = node.getChildren();
+			for (int i = 0; i < children.size(); i++) {
+				Node child = children.get(i);
+				if (child.getStartPos() <= start && end <= child.getEndPos()
+						&& (start < child.getEndPos() || child.getStartPos() == child.getEndPos())) {
+					next = child;
+					break;
+				}
+				if (child.getStartPos() > start) {
+					break;
+				}
+			}
+			if (next == null) {
+				return node;
+			}
+			node = next;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		if (args.length != 2) {
+			System.err.println("Usage: TokenDiff <old file> <new file>");
+			System.exit(1);
+		}
+		TokenSequence oldSeq, newSeq;
+		try (Reader r = new FileReader(args[0])) {
+			oldSeq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+		}
+		try (Reader r = new FileReader(args[1])) {
+			newSeq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+		}
+		Node oldUnit = null, newUnit = null;
+		try {
+			oldUnit = new CParser(oldSeq).parse();
+			newUnit = new CParser(newSeq).parse();
+		} catch (ParserException e) {
+			// Report hunks without the enclosing nodes
+		}
+		final Node oldRoot = oldUnit, newRoot = newUnit;
+		new TokenDiff().diff(oldSeq, newSeq, (type, oldStart, oldEnd, newStart, newEnd) -> {
+			StringBuilder buf = new StringBuilder();
+			buf.append(type).append(" old[").append(oldStart).append(',').append(oldEnd)
+				.append(") new[").append(newStart).append(',').append(newEnd).append(')');
+			if (type == EditType.INSERT ? newRoot != null : oldRoot != null) {
+				Node node = (type == EditType.INSERT)
+						? findEnclosingNode(newRoot, newStart, newEnd)
+						: findEnclosingNode(oldRoot, oldStart, oldEnd);
+				buf.append(" in ").append(node.getNodeType());
+			}
+			for (int i = oldStart; i < oldEnd; i++) {
+				buf.append("\n  - ").append(oldSeq.get(i).getLexeme());
+			}
+			for (int i = newStart; i < newEnd; i++) {
+				buf.append("\n  + ").append(newSeq.get(i).getLexeme());
+			}
+			System.out.println(buf);
+		});
+	}
+}
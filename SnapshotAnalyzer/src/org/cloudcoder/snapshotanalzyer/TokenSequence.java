@@ -1,17 +1,37 @@
 package org.cloudcoder.snapshotanalzyer;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Predicate;
 
 public class TokenSequence {
 	private List<Token> tokens;
 	private int pos;
+	private int[][] matchTables;
+	private TokenType[] matchTableRdelims;
 	
 	public TokenSequence(List<Token> tokens) {
 		this.tokens = tokens;
 		this.pos = 0;
 	}
 	
+	/**
+	 * Create a new sequence over the same tokens, with its own position.
+	 * Delimiter match tables already built (see {@link #prepareMatching})
+	 * are shared, so a table can be built once and then used by views
+	 * on different threads.
+	 * 
+	 * @return the view
+	 */
+	public TokenSequence createView() {
+		TokenSequence view = new TokenSequence(tokens);
+		if (matchTables != null) {
+			view.matchTables = matchTables.clone();
+			view.matchTableRdelims = matchTableRdelims.clone();
+		}
+		return view;
+	}
+
 	public int getPos() {
 		return pos;
 	}
@@ -20,20 +40,24 @@ public class TokenSequence {
 		this.pos = pos;
 	}
 
+	public int size() {
+		return tokens.size();
+	}
+
 	public boolean isFinished() {
 		return pos >= tokens.size();
 	}
 
 	public Token peek() {
 		if (isFinished()) {
-			throw new IllegalArgumentException("No more tokens");
+			throw new ParserException(this, "Unexpected end of input");
 		}
 		return tokens.get(pos);
 	}
 	
 	public Token consume() {
 		if (isFinished()) {
-			throw new IllegalArgumentException("No more tokens");
+			throw new ParserException(this, "Unexpected end of input");
 		}
 		Token result = tokens.get(pos);
 		pos++;
@@ -57,6 +81,9 @@ public class TokenSequence {
 	}
 
 	public String getWhere() {
+		if (tokens.isEmpty()) {
+			return "1:EOF:";
+		}
 		Token where = isFinished() ? tokens.get(tokens.size() - 1) : tokens.get(pos);
 		return (where.getPosition().getRow() + 1) + ":" + where.getTokenType() + ":";
 	}
@@ -74,23 +101,47 @@ public class TokenSequence {
 		if (isFinished() || peek().getTokenType() != ldelim) {
 			throw new IllegalStateException("token sequence not positioned at " + ldelim);
 		}
-		int count = 1;
-		int i = pos+1;
-		while (true) {
-			if (i >= tokens.size()) {
-				// No matching right delimiter
-				return -1;
-			}
-			if (tokens.get(i).getTokenType() == ldelim) {
-				count++;
-			} else if (tokens.get(i).getTokenType() == rdelim) {
-				count--;
-				if (count == 0) {
-					return i;
+		return getMatchTable(ldelim, rdelim)[pos];
+	}
+
+	/**
+	 * Build the match table used by {@link #findMatching} for given
+	 * delimiters now, rather than on first use.
+	 */
+	public void prepareMatching(TokenType ldelim, TokenType rdelim) {
+		getMatchTable(ldelim, rdelim);
+	}
+
+	// Build (on first use) the table giving, for each ldelim token, the
+	// index of its matching rdelim token (or -1), so that findMatching is
+	// constant time rather than a scan, which could reach the end of the
+	// sequence for every unbalanced delimiter
+	private int[] getMatchTable(TokenType ldelim, TokenType rdelim) {
+		if (matchTables == null) {
+			matchTables = new int[TokenType.values().length][];
+			matchTableRdelims = new TokenType[TokenType.values().length];
+		}
+		int[] table = matchTables[ldelim.ordinal()];
+		if (table == null || matchTableRdelims[ldelim.ordinal()] != rdelim) {
+			table = new int[tokens.size()];
+			int[] stack = new int[16];
+			int depth = 0;
+			for (int i = 0; i < tokens.size(); i++) {
+				TokenType type = tokens.get(i).getTokenType();
+				if (type == ldelim) {
+					table[i] = -1;
+					if (depth == stack.length) {
+						stack = Arrays.copyOf(stack, depth * 2);
+					}
+					stack[depth++] = i;
+				} else if (type == rdelim && depth > 0) {
+					table[stack[--depth]] = i;
 				}
 			}
-			i++;
+			matchTables[ldelim.ordinal()] = table;
+			matchTableRdelims[ldelim.ordinal()] = rdelim;
 		}
+		return table;
 	}
 
 	public Token get(int index) {
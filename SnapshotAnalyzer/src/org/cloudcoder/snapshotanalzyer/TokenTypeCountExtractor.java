@@ -0,0 +1,29 @@
+package org.cloudcoder.snapshotanalzyer;
+
+/**
+ * Counts the number of tokens of each type.
+ */
+public class TokenTypeCountExtractor implements IFeatureExtractor {
+	private int base;
+
+	@Override
+	public void addFeatures(FeatureSchema schema) {
+		base = -1;
+		for (TokenType tokenType : TokenType.values()) {
+			int index = schema.addFeature("tokens." + tokenType);
+			if (base < 0) {
+				base = index;
+			}
+		}
+	}
+
+	@Override
+	public boolean wantsTokens() {
+		return true;
+	}
+
+	@Override
+	public void visitToken(Token token, FeatureVector features) {
+		features.increment(base + token.getTokenType().ordinal());
+	}
+}
@@ -0,0 +1,147 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cursor for navigating a parse tree.  The path from the root to the
+ * current node is kept in arrays, so navigation does not allocate,
+ * and the cursor can be reset and reused for another tree.
+ * (See {@link EncodedTreeReader} for the equivalent over encoded trees.)
+ */
+public class TreeCursor {
+	private Node[] path;
+	private int[] childIndex; // index of each node on the path within its parent's children
+	private int depth;
+
+	public TreeCursor() {
+		this.path = new Node[32];
+		this.childIndex = new int[32];
+		this.depth = -1;
+	}
+
+	public TreeCursor(Node root) {
+		this();
+		moveToRoot(root);
+	}
+
+	/**
+	 * Position the cursor at the root of a tree.
+	 *
+	 * @param root the root of the tree
+	 */
+	public void reset(Node root) {
+		moveToRoot(root);
+	}
+
+	private void moveToRoot(Node root) {
+		Arrays.fill(path, 0, depth + 1, null);
+		depth = 0;
+		path[0] = root;
+		childIndex[0] = 0;
+	}
+
+	public Node getNode() {
+		return path[depth];
+	}
+
+	/**
+	 * @return depth of the current node (the root is at depth 0)
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return the parent of the current node, or null if the current node is the root
+	 */
+	public Node getParent() {
+		return depth > 0 ? path[depth - 1] : null;
+	}
+
+	/**
+	 * @param level a depth less than or equal to the current depth
+	 * @return the ancestor of the current node at that depth
+	 */
+	public Node getAncestor(int level) {
+		return path[level];
+	}
+
+	/**
+	 * @return index of the current node in its parent's list of children
+	 */
+	public int getChildIndex() {
+		return childIndex[depth];
+	}
+
+	/**
+	 * Move to the first child of the current node.
+	 *
+	 * @return true if successful, false if the current node has no children
+	 */
+	public boolean gotoFirstChild() {
+		List<Node> children = path[depth].getChildren();
+		if (children.isEmpty()) {
+			return false;
+		}
+		depth++;
+		if (depth == path.length) {
+			path = Arrays.copyOf(path, depth * 2);
+			childIndex = Arrays.copyOf(childIndex, depth * 2);
+		}
+		path[depth] = children.get(0);
+		childIndex[depth] = 0;
+		return true;
+	}
+
+	/**
+	 * Move to the next sibling of the current node (skipping the current node's subtree).
+	 *
+	 * @return true if successful, false if the current node is the last child
+	 */
+	public boolean gotoNextSibling() {
+		if (depth == 0) {
+			return false;
+		}
+		List<Node> siblings = path[depth - 1].getChildren();
+		int next = childIndex[depth] + 1;
+		if (next >= siblings.size()) {
+			return false;
+		}
+		path[depth] = siblings.get(next);
+		childIndex[depth] = next;
+		return true;
+	}
+
+	/**
+	 * Move to the parent of the current node.
+	 *
+	 * @return true if successful, false if the current node is the root
+	 */
+	public boolean gotoParent() {
+		if (depth == 0) {
+			return false;
+		}
+		path[depth] = null;
+		depth--;
+		return true;
+	}
+
+	/**
+	 * Move to the next node in preorder.
+	 *
+	 * @param skipChildren if true, the children of the current node are skipped
+	 * @return true if successful, false if there are no more nodes
+	 */
+	public boolean next(boolean skipChildren) {
+		if (!skipChildren && gotoFirstChild()) {
+			return true;
+		}
+		while (!gotoNextSibling()) {
+			if (!gotoParent()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
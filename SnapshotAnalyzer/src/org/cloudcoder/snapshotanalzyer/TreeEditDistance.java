@@ -0,0 +1,134 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.Arrays;
+
+/**
+ * Exact tree edit distance between parse trees (with unit cost
+ * insertion, deletion and relabeling of nodes, where a node's label is its
+ * {@link NodeType}), using the Zhang-Shasha algorithm.  This takes
+ * quadratic space and worse than quadratic time, so it is only suitable
+ * for small trees: for large trees, use a {@link PqGramProfile}.
+ */
+public class TreeEditDistance {
+	/** Trees with at most this many nodes are considered small. */
+	public static final int MAX_SMALL_TREE_SIZE = 500;
+
+	/**
+	 * @return true if a tree is small enough for its exact edit distance to be computed cheaply
+	 */
+	public static boolean isSmall(Node root) {
+		int count = 0;
+		TreeCursor cursor = new TreeCursor(root);
+		do {
+			if (++count > MAX_SMALL_TREE_SIZE) {
+				return false;
+			}
+		} while (cursor.next(false));
+		return true;
+	}
+
+	/**
+	 * Compute the edit distance between two trees.
+	 *
+	 * @param a a tree
+	 * @param b another tree
+	 * @return the minimum number of node insertions, deletions and relabelings
+	 *         needed to transform a into b
+	 */
+	public static int compute(Node a, Node b) {
+		PostorderTree ta = new PostorderTree(a), tb = new PostorderTree(b);
+		int n = ta.size, m = tb.size;
+		int[][] treeDist = new int[n + 1][m + 1];
+		int[][] forestDist = new int[n + 1][m + 1];
+		for (int ki = 0; ki < ta.numKeyroots; ki++) {
+			for (int kj = 0; kj < tb.numKeyroots; kj++) {
+				computeTreeDist(ta, tb, ta.keyroots[ki], tb.keyroots[kj], treeDist, forestDist);
+			}
+		}
+		return treeDist[n][m];
+	}
+
+	// Nodes are numbered 1..size in postorder
+	private static void computeTreeDist(PostorderTree ta, PostorderTree tb, int i, int j, int[][] treeDist, int[][] forestDist) {
+		int il = ta.leftmostLeaf[i], jl = tb.leftmostLeaf[j];
+		forestDist[il - 1][jl - 1] = 0;
+		for (int di = il; di <= i; di++) {
+			forestDist[di][jl - 1] = forestDist[di - 1][jl - 1] + 1;
+		}
+		for (int dj = jl; dj <= j; dj++) {
+			forestDist[il - 1][dj] = forestDist[il - 1][dj - 1] + 1;
+		}
+		for (int di = il; di <= i; di++) {
+			for (int dj = jl; dj <= j; dj++) {
+				int delete = forestDist[di - 1][dj] + 1;
+				int insert = forestDist[di][dj - 1] + 1;
+				if (ta.leftmostLeaf[di] == il && tb.leftmostLeaf[dj] == jl) {
+					// Both forests are trees
+					int relabel = forestDist[di - 1][dj - 1] + (ta.labels[di] == tb.labels[dj] ? 0 : 1);
+					forestDist[di][dj] = Math.min(Math.min(delete, insert), relabel);
+					treeDist[di][dj] = forestDist[di][dj];
+				} else {
+					int subtrees = forestDist[ta.leftmostLeaf[di] - 1][tb.leftmostLeaf[dj] - 1] + treeDist[di][dj];
+					forestDist[di][dj] = Math.min(Math.min(delete, insert), subtrees);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A tree's labels, leftmost leaves, and keyroots, in postorder.
+	 */
+	private static class PostorderTree {
+		private int size;
+		private int[] labels;
+		private int[] leftmostLeaf;
+		private int[] keyroots;
+		private int numKeyroots;
+		private int[] firstIndex; // by depth: number of the first node exited in the subtree
+
+		public PostorderTree(Node root) {
+			this.labels = new int[64];
+			this.leftmostLeaf = new int[64];
+			this.firstIndex = new int[32];
+			new TreeWalker().walk(root, new ITreeVisitor() {
+				@Override
+				public boolean enter(Node node, int depth) {
+					if (depth == firstIndex.length) {
+						firstIndex = Arrays.copyOf(firstIndex, depth * 2);
+					}
+					// The first node exited in a subtree is its leftmost leaf
+					firstIndex[depth] = size + 1;
+					return true;
+				}
+
+				@Override
+				public void exit(Node node, int depth) {
+					size++;
+					if (size == labels.length) {
+						labels = Arrays.copyOf(labels, size * 2);
+						leftmostLeaf = Arrays.copyOf(leftmostLeaf, size * 2);
+					}
+					labels[size] = node.getNodeType().ordinal();
+					leftmostLeaf[size] = firstIndex[depth];
+				}
+			});
+
+			// A keyroot is the root, or a node with a left sibling: equivalently,
+			// the highest numbered node with a given leftmost leaf
+			boolean[] seen = new boolean[size + 1];
+			keyroots = new int[size];
+			for (int k = size; k >= 1; k--) {
+				if (!seen[leftmostLeaf[k]]) {
+					seen[leftmostLeaf[k]] = true;
+					keyroots[numKeyroots++] = k;
+				}
+			}
+			// Keyroots must be processed in increasing order
+			for (int lo = 0, hi = numKeyroots - 1; lo < hi; lo++, hi--) {
+				int t = keyroots[lo];
+				keyroots[lo] = keyroots[hi];
+				keyroots[hi] = t;
+			}
+		}
+	}
+}
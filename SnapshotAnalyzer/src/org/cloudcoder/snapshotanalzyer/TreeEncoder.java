@@ -0,0 +1,107 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Encode a parse tree in a compact binary format.
+ * Nodes are written in preorder.  Each node is a header of five varints:
+ * <ul>
+ * <li> the ordinal of the node type
+ * <li> the start position, relative to the parent's start position (signed)
+ * <li> the end position, relative to the node's own start position (signed)
+ * <li> the number of children
+ * <li> the number of bytes occupied by the encoded children
+ * </ul>
+ * followed by the children.  Storing the byte length of the children
+ * allows a reader to skip an entire subtree without decoding it
+ * (see {@link EncodedTreeReader}.)
+ *
+ * An encoder may be reused, but is not thread-safe.
+ */
+public class TreeEncoder {
+	public static final int MAGIC = 0x54524545; // "TREE"
+	public static final int VERSION = 1;
+
+	private int[] bodySizes;
+	private int count;
+
+	public TreeEncoder() {
+		this.bodySizes = new int[256];
+	}
+
+	/**
+	 * Encode a tree, preceded by the file header.
+	 *
+	 * @param root the root of the tree
+	 * @param out  the VarIntWriter to write to
+	 */
+	public void encode(Node root, VarIntWriter out) {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		encodeTree(root, out);
+	}
+
+	/**
+	 * Encode a tree without a header.
+	 *
+	 * @param root the root of the tree
+	 * @param out  the VarIntWriter to write to
+	 */
+	public void encodeTree(Node root, VarIntWriter out) {
+		// First pass computes the encoded size of each node's children,
+		// second pass writes the nodes
+		count = 0;
+		measure(root, 0);
+		count = 0;
+		emit(root, 0, out);
+	}
+
+	/**
+	 * Encode a tree and write it to a file.
+	 *
+	 * @param root the root of the tree
+	 * @param file the file to write
+	 * @throws IOException
+	 */
+	public void write(Node root, File file) throws IOException {
+		VarIntWriter out = new VarIntWriter(4096);
+		encode(root, out);
+		try (OutputStream os = new FileOutputStream(file)) {
+			out.writeTo(os);
+		}
+	}
+
+	private int measure(Node node, int parentStart) {
+		int index = count++;
+		if (index >= bodySizes.length) {
+			bodySizes = Arrays.copyOf(bodySizes, bodySizes.length * 2);
+		}
+		int body = 0;
+		for (Node child : node.getChildren()) {
+			body += measure(child, node.getStartPos());
+		}
+		bodySizes[index] = body;
+		return VarInt.sizeOfUnsigned(node.getNodeType().ordinal())
+				+ VarInt.sizeOfUnsigned(VarInt.zigZag(node.getStartPos() - parentStart))
+				+ VarInt.sizeOfUnsigned(VarInt.zigZag(node.getEndPos() - node.getStartPos()))
+				+ VarInt.sizeOfUnsigned(node.getChildren().size())
+				+ VarInt.sizeOfUnsigned(body)
+				+ body;
+	}
+
+	private void emit(Node node, int parentStart, VarIntWriter out) {
+		int body = bodySizes[count++];
+		out.writeUnsigned(node.getNodeType().ordinal());
+		out.writeSigned(node.getStartPos() - parentStart);
+		out.writeSigned(node.getEndPos() - node.getStartPos());
+		out.writeUnsigned(node.getChildren().size());
+		out.writeUnsigned(body);
+		for (Node child : node.getChildren()) {
+			emit(child, node.getStartPos(), out);
+		}
+	}
+}
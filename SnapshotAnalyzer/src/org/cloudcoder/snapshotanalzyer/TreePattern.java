@@ -0,0 +1,178 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A structural pattern over parse trees: a path of steps, each of
+ * which matches a node by {@link NodeType} (or any node, for <code>*</code>),
+ * separated by <code>&gt;</code> (the next step matches a child)
+ * or <code>&gt;&gt;</code> (the next step matches a descendant).
+ * A step may require that the node's tokens include certain token types,
+ * written as a bracketed list.  The first step may match any node.
+ * For example:
+ * <pre>
+ * FOR_STATEMENT &gt; BLOCK_STATEMENT &gt;&gt; IF_STATEMENT
+ * WHILE_STATEMENT &gt;&gt; EXPRESSION[INCREMENT]
+ * * &gt; DO_WHILE_STATEMENT
+ * </pre>
+ * A pattern matches a node if the node matches the last step and
+ * its ancestors match the earlier steps.
+ * Patterns are evaluated by a {@link TreePatternMatcher}.
+ */
+public class TreePattern {
+	private final NodeType[] nodeTypes; // null element means any node type
+	private final TokenType[][] requiredTokens;
+	private final boolean[] descendant; // descendant[i] is true if step i+1 matches a descendant of step i
+
+	private TreePattern(NodeType[] nodeTypes, TokenType[][] requiredTokens, boolean[] descendant) {
+		this.nodeTypes = nodeTypes;
+		this.requiredTokens = requiredTokens;
+		this.descendant = descendant;
+	}
+
+	/**
+	 * Parse a pattern.
+	 *
+	 * @param pattern the pattern
+	 * @return the parsed pattern
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 */
+	public static TreePattern parse(String pattern) {
+		List<NodeType> nodeTypes = new ArrayList<>();
+		List<TokenType[]> requiredTokens = new ArrayList<>();
+		List<Boolean> descendant = new ArrayList<>();
+
+		int pos = 0;
+		while (true) {
+			// Step
+			pos = skipWs(pattern, pos);
+			if (pos < pattern.length() && pattern.charAt(pos) == '*') {
+				nodeTypes.add(null);
+				pos++;
+			} else {
+				int start = pos;
+				pos = scanName(pattern, pos);
+				nodeTypes.add(valueOf(NodeType.class, pattern.substring(start, pos), pattern));
+			}
+
+			// Required token types
+			pos = skipWs(pattern, pos);
+			List<TokenType> tokens = new ArrayList<>();
+			if (pos < pattern.length() && pattern.charAt(pos) == '[') {
+				do {
+					pos = skipWs(pattern, pos + 1);
+					int start = pos;
+					pos = scanName(pattern, pos);
+					tokens.add(valueOf(TokenType.class, pattern.substring(start, pos), pattern));
+					pos = skipWs(pattern, pos);
+				} while (pos < pattern.length() && pattern.charAt(pos) == ',');
+				if (pos >= pattern.length() || pattern.charAt(pos) != ']') {
+					throw new IllegalArgumentException("Missing ] in pattern: " + pattern);
+				}
+				pos = skipWs(pattern, pos + 1);
+			}
+			requiredTokens.add(tokens.toArray(new TokenType[tokens.size()]));
+
+			// Axis
+			if (pos >= pattern.length()) {
+				break;
+			}
+			if (pattern.charAt(pos) != '>') {
+				throw new IllegalArgumentException("Expected > or >> at offset " + pos + " in pattern: " + pattern);
+			}
+			pos++;
+			if (pos < pattern.length() && pattern.charAt(pos) == '>') {
+				descendant.add(true);
+				pos++;
+			} else {
+				descendant.add(false);
+			}
+		}
+
+		boolean[] desc = new boolean[descendant.size()];
+		for (int i = 0; i < desc.length; i++) {
+			desc[i] = descendant.get(i);
+		}
+		return new TreePattern(nodeTypes.toArray(new NodeType[nodeTypes.size()]),
+				requiredTokens.toArray(new TokenType[requiredTokens.size()][]),
+				desc);
+	}
+
+	/**
+	 * @return the number of steps
+	 */
+	public int getNumSteps() {
+		return nodeTypes.length;
+	}
+
+	/**
+	 * @return the node type matched by given step, or null if the step matches any node
+	 */
+	public NodeType getNodeType(int step) {
+		return nodeTypes[step];
+	}
+
+	/**
+	 * @return the token types that must occur within a node matched by given step
+	 */
+	public TokenType[] getRequiredTokens(int step) {
+		return requiredTokens[step].clone();
+	}
+
+	/**
+	 * @return true if the step after given step matches a descendant,
+	 *         false if it matches a child
+	 */
+	public boolean isDescendant(int step) {
+		return descendant[step];
+	}
+
+	/**
+	 * @return the pattern in canonical form (so that equivalent patterns
+	 *         have equal string representations)
+	 */
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < nodeTypes.length; i++) {
+			if (i > 0) {
+				buf.append(descendant[i - 1] ? " >> " : " > ");
+			}
+			buf.append(nodeTypes[i] != null ? nodeTypes[i].toString() : "*");
+			if (requiredTokens[i].length > 0) {
+				buf.append('[');
+				for (int j = 0; j < requiredTokens[i].length; j++) {
+					if (j > 0) {
+						buf.append(',');
+					}
+					buf.append(requiredTokens[i][j]);
+				}
+				buf.append(']');
+			}
+		}
+		return buf.toString();
+	}
+
+	private static int skipWs(String s, int pos) {
+		while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static int scanName(String s, int pos) {
+		while (pos < s.length() && (Character.isLetterOrDigit(s.charAt(pos)) || s.charAt(pos) == '_')) {
+			pos++;
+		}
+		return pos;
+	}
+
+	private static <E extends Enum<E>> E valueOf(Class<E> cls, String name, String pattern) {
+		try {
+			return Enum.valueOf(cls, name);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown " + cls.getSimpleName() + " '" + name + "' in pattern: " + pattern);
+		}
+	}
+}
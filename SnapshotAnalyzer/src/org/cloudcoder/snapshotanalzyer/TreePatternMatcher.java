@@ -0,0 +1,324 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches any number of {@link TreePattern}s against parse trees
+ * in a single traversal of each tree.
+ *
+ * The patterns are compiled into one top-down tree automaton whose states
+ * are the steps of all of the patterns.  The state of a node is a
+ * bit set of the steps matched at the node, plus a bit set of the steps
+ * "inherited" from ancestors via a descendant (<code>&gt;&gt;</code>) axis.
+ * Each node's state is computed from its parent's state with a few
+ * word-wide operations per 64 steps, using per-node-type masks, so the
+ * cost of matching grows very slowly with the number of patterns.
+ * Token constraints are checked (by binary search of the positions of
+ * each required token type) only for steps that are otherwise matched.
+ *
+ * The result for each pattern is the number of nodes it matches.
+ * A matcher should only be used by one thread at a time.
+ */
+public class TreePatternMatcher {
+	private final List<TreePattern> patterns;
+	private int numSteps;
+	private boolean compiled;
+
+	// Compiled automaton: bit sets over steps, numWords longs each
+	private int numWords;
+	private long[][] typeMasks; // steps matching each node type, indexed by NodeType ordinal
+	private long[] startMask, childMask, descendantMask, acceptMask, constrainedMask;
+	private int[] stepPattern;
+	private TokenType[][] stepTokens;
+
+	// State of the nodes on the current path, numWords longs per level
+	private long[] here, inherited;
+
+	// Positions of the token types needed by token constraints, indexed by TokenType ordinal
+	private boolean[] tokenTypeUsed;
+	private int[][] tokenPositions;
+	private int[] numTokenPositions;
+
+	private int[] counts;
+	private final TreeWalker walker;
+	private final ITreeVisitor visitor;
+
+	public TreePatternMatcher() {
+		this.patterns = new ArrayList<>();
+		this.numSteps = 0;
+		this.compiled = false;
+		this.counts = new int[0];
+		this.walker = new TreeWalker();
+		this.visitor = new ITreeVisitor() {
+			@Override
+			public boolean enter(Node node, int depth) {
+				TreePatternMatcher.this.enter(node, depth);
+				return true;
+			}
+
+			@Override
+			public void exit(Node node, int depth) {
+			}
+		};
+	}
+
+	/**
+	 * Add a pattern.
+	 *
+	 * @param pattern the pattern
+	 * @return the index of the pattern
+	 */
+	public int addPattern(TreePattern pattern) {
+		patterns.add(pattern);
+		numSteps += pattern.getNumSteps();
+		compiled = false;
+		return patterns.size() - 1;
+	}
+
+	public int getNumPatterns() {
+		return patterns.size();
+	}
+
+	public TreePattern getPattern(int index) {
+		return patterns.get(index);
+	}
+
+	/**
+	 * Match all of the patterns against a parse tree.
+	 * Afterwards, {@link #getCount(int)} returns the results.
+	 *
+	 * @param seq  the tokens of the snapshot
+	 * @param unit the parse tree
+	 */
+	public void match(TokenSequence seq, Node unit) {
+		startSnapshot(seq);
+		walker.walk(unit, visitor);
+	}
+
+	/**
+	 * @param pattern index of a pattern
+	 * @return the number of nodes matched by the pattern in the most recent snapshot
+	 */
+	public int getCount(int pattern) {
+		return counts[pattern];
+	}
+
+	/**
+	 * Prepare to match a snapshot whose nodes will be passed to
+	 * {@link #enter(Node, int)} in preorder.  (This allows the matcher
+	 * to be driven by some other traversal, such as a
+	 * {@link FeatureExtractionEngine}'s.)
+	 *
+	 * @param seq the tokens of the snapshot
+	 */
+	public void startSnapshot(TokenSequence seq) {
+		if (!compiled) {
+			compile();
+		}
+		Arrays.fill(counts, 0);
+		Arrays.fill(numTokenPositions, 0);
+		int numTokens = seq.size();
+		for (int i = 0; i < numTokens; i++) {
+			int t = seq.get(i).getTokenType().ordinal();
+			if (tokenTypeUsed[t]) {
+				if (numTokenPositions[t] == tokenPositions[t].length) {
+					tokenPositions[t] = Arrays.copyOf(tokenPositions[t], tokenPositions[t].length * 2);
+				}
+				tokenPositions[t][numTokenPositions[t]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Compute the state of a node from the state of its parent,
+	 * and count the patterns that match it.
+	 *
+	 * @param node  the node
+	 * @param depth the depth of the node: the node's parent must be
+	 *              the most recent node passed with depth - 1
+	 */
+	public void enter(Node node, int depth) {
+		int base = depth * numWords;
+		if (base + numWords > here.length) {
+			here = Arrays.copyOf(here, here.length * 2);
+			inherited = Arrays.copyOf(inherited, inherited.length * 2);
+		}
+		long[] typeMask = typeMasks[node.getNodeType().ordinal()];
+		long childCarry = 0L, descendantCarry = 0L;
+		boolean constrained = false, accepted = false;
+		for (int w = 0; w < numWords; w++) {
+			long parentHere = 0L, parentInherited = 0L;
+			if (depth > 0) {
+				parentHere = here[base - numWords + w];
+				parentInherited = inherited[base - numWords + w];
+			}
+			// Advance from each step matched at the parent to the following step
+			long child = parentHere & childMask[w];
+			long desc = parentHere & descendantMask[w];
+			long advanced = (child << 1) | childCarry;
+			long inh = parentInherited | (desc << 1) | descendantCarry;
+			childCarry = child >>> 63;
+			descendantCarry = desc >>> 63;
+
+			long state = (startMask[w] | advanced | inh) & typeMask[w];
+			inherited[base + w] = inh;
+			here[base + w] = state;
+			constrained |= (state & constrainedMask[w]) != 0;
+			accepted |= (state & acceptMask[w]) != 0;
+		}
+		if (constrained) {
+			accepted = checkTokenConstraints(node, base);
+		}
+		if (accepted) {
+			for (int w = 0; w < numWords; w++) {
+				long bits = here[base + w] & acceptMask[w];
+				while (bits != 0) {
+					counts[stepPattern[(w << 6) + Long.numberOfTrailingZeros(bits)]]++;
+					bits &= bits - 1;
+				}
+			}
+		}
+	}
+
+	// Clear the constrained steps whose required tokens don't occur within the node
+	private boolean checkTokenConstraints(Node node, int base) {
+		boolean accepted = false;
+		for (int w = 0; w < numWords; w++) {
+			long bits = here[base + w] & constrainedMask[w];
+			while (bits != 0) {
+				int step = (w << 6) + Long.numberOfTrailingZeros(bits);
+				for (TokenType t : stepTokens[step]) {
+					if (!containsToken(t.ordinal(), node.getStartPos(), node.getEndPos())) {
+						here[base + w] &= ~(1L << step);
+						break;
+					}
+				}
+				bits &= bits - 1;
+			}
+			accepted |= (here[base + w] & acceptMask[w]) != 0;
+		}
+		return accepted;
+	}
+
+	// Check whether a token type occurs in the token range [start, end)
+	private boolean containsToken(int tokenType, int start, int end) {
+		int[] positions = tokenPositions[tokenType];
+		int lo = 0, hi = numTokenPositions[tokenType];
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid] < start) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return start >= 0 && lo < numTokenPositions[tokenType] && positions[lo] < end;
+	}
+
+	private void compile() {
+		numWords = Math.max(1, (numSteps + 63) >>> 6);
+		NodeType[] nodeTypes = NodeType.values();
+		typeMasks = new long[nodeTypes.length][numWords];
+		startMask = new long[numWords];
+		childMask = new long[numWords];
+		descendantMask = new long[numWords];
+		acceptMask = new long[numWords];
+		constrainedMask = new long[numWords];
+		stepPattern = new int[numSteps];
+		stepTokens = new TokenType[numSteps][];
+		tokenTypeUsed = new boolean[TokenType.values().length];
+
+		// The steps of each pattern are numbered consecutively, so advancing
+		// from a step to the next is a shift by one bit
+		int step = 0;
+		for (int p = 0; p < patterns.size(); p++) {
+			TreePattern pattern = patterns.get(p);
+			int n = pattern.getNumSteps();
+			for (int i = 0; i < n; i++, step++) {
+				int w = step >>> 6;
+				long bit = 1L << step;
+				stepPattern[step] = p;
+				NodeType nodeType = pattern.getNodeType(i);
+				for (NodeType t : nodeTypes) {
+					if (nodeType == null || nodeType == t) {
+						typeMasks[t.ordinal()][w] |= bit;
+					}
+				}
+				if (i == 0) {
+					startMask[w] |= bit;
+				}
+				if (i == n - 1) {
+					acceptMask[w] |= bit;
+				} else if (pattern.isDescendant(i)) {
+					descendantMask[w] |= bit;
+				} else {
+					childMask[w] |= bit;
+				}
+				stepTokens[step] = pattern.getRequiredTokens(i);
+				if (stepTokens[step].length > 0) {
+					constrainedMask[w] |= bit;
+					for (TokenType t : stepTokens[step]) {
+						tokenTypeUsed[t.ordinal()] = true;
+					}
+				}
+			}
+		}
+
+		here = new long[32 * numWords];
+		inherited = new long[32 * numWords];
+		tokenPositions = new int[tokenTypeUsed.length][];
+		for (int i = 0; i < tokenPositions.length; i++) {
+			tokenPositions[i] = tokenTypeUsed[i] ? new int[16] : new int[0];
+		}
+		numTokenPositions = new int[tokenTypeUsed.length];
+		counts = new int[patterns.size()];
+		compiled = true;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: TreePatternMatcher <archive> <pattern>...");
+			System.exit(1);
+		}
+		TreePatternMatcher matcher = new TreePatternMatcher();
+		for (int i = 1; i < args.length; i++) {
+			matcher.addPattern(TreePattern.parse(args[i]));
+		}
+		int n = matcher.getNumPatterns();
+		long[] totalMatches = new long[n];
+		int[] matchingSnapshots = new int[n];
+		int parsed = 0, errors = 0;
+		try (ArchiveSnapshotSource source = new ArchiveSnapshotSource(new File(args[0]))) {
+			Snapshot snapshot;
+			while ((snapshot = source.readNext()) != null) {
+				try (Reader r = snapshot.createReader()) {
+					TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+					Node unit = new CParser(seq).parse();
+					matcher.match(seq, unit);
+					parsed++;
+				} catch (LexerException | ParserException e) {
+					// E.g., a mid-edit snapshot
+					errors++;
+					continue;
+				}
+				for (int p = 0; p < n; p++) {
+					int count = matcher.getCount(p);
+					totalMatches[p] += count;
+					if (count > 0) {
+						matchingSnapshots[p]++;
+					}
+				}
+			}
+		}
+		System.out.println(parsed + " snapshots parsed, " + errors + " could not be parsed");
+		for (int p = 0; p < n; p++) {
+			System.out.println(matcher.getPattern(p) + ": " + matchingSnapshots[p] + " of " + parsed
+					+ " snapshots, " + totalMatches[p] + " matches");
+		}
+	}
+}
@@ -1,79 +1,29 @@
 package org.cloudcoder.snapshotanalzyer;
 
-import java.util.Stack;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 
+/**
+ * Prints a parse tree to System.out as ASCII art
+ * (see {@link AsciiTreeWriter}.)
+ */
 public class TreePrinter {
-	private static class Item {
-		private Node node;
-		private int remainingChildren;
-		private boolean visited;
-		
-		public Item(Node node) {
-			this.node = node;
-			this.remainingChildren = node.getChildren().size();
-			this.visited = false;
-		}
-		
-		public boolean isVisited() {
-			return visited;
-		}
-		
-		public void setVisited(boolean visited) {
-			this.visited = visited;
-		}
-		
-		public Node getNode() {
-			return node;
-		}
-		
-		public int getRemainingChildren() {
-			return remainingChildren;
-		}
-
-		public Node nextChild() {
-			if (remainingChildren <= 0) {
-				throw new IllegalStateException();
-			}
-			Node child = node.getChildren().get(node.getChildren().size() - remainingChildren);
-			--remainingChildren;
-			return child;
-		}
-	}
-	
-	private Stack<Item> stack;
 	private TokenSequence seq;
 	
 	public TreePrinter(TokenSequence seq) {
-		this.stack = new Stack<Item>();
 		this.seq = seq;
 	}
 	
 	public void print(Node node) {
-		stack.push(new Item(node));
-		
-		while (!stack.isEmpty()) {
-			Item item = stack.pop();
-			if (!item.isVisited()) {
-				printNode(item.getNode());
-				item.setVisited(true);
-			}
-			if (item.getRemainingChildren() > 0) {
-				stack.push(item);
-				stack.push(new Item(item.nextChild()));
-			}
-		}
-	}
-
-	private void printNode(Node node) {
-		for (int i = 0; i < stack.size(); i++) {
-			boolean parentLevel = (i == stack.size() - 1);
-			if (parentLevel) {
-				System.out.print("+--");
-			} else {
-				System.out.print(stack.get(i).getRemainingChildren() > 0 ? "|  " : "   ");
-			}
+		try {
+			Writer w = new BufferedWriter(new OutputStreamWriter(System.out));
+			new AsciiTreeWriter(w, seq).write(node);
+			w.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		
-		System.out.println(node.asString(seq));
 	}
 }
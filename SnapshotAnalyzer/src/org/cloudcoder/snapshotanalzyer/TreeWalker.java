@@ -0,0 +1,100 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks a parse tree depth-first, calling an {@link ITreeVisitor}
+ * when entering and exiting each node.  The walk is iterative: the path
+ * from the root to the current node is kept in arrays, which are
+ * reused from one walk to the next, so walking a tree does not
+ * allocate.  During a walk, the visitor may query the walker for
+ * the ancestors of the current node.
+ *
+ * A TreeWalker may be reused, but is not thread-safe.
+ */
+public class TreeWalker {
+	private Node[] path;
+	private int[] nextChild; // index of next child to visit at each level of the path
+
+	public TreeWalker() {
+		this.path = new Node[32];
+		this.nextChild = new int[32];
+	}
+
+	/**
+	 * Walk a tree.
+	 *
+	 * @param root    the root of the tree
+	 * @param visitor the visitor
+	 */
+	public void walk(Node root, ITreeVisitor visitor) {
+		int depth = 0;
+		path[0] = root;
+		nextChild[0] = visitor.enter(root, 0) ? 0 : root.getChildren().size();
+		while (depth >= 0) {
+			Node node = path[depth];
+			List<Node> children = node.getChildren();
+			int i = nextChild[depth];
+			if (i < children.size()) {
+				nextChild[depth] = i + 1;
+				depth++;
+				if (depth == path.length) {
+					path = Arrays.copyOf(path, depth * 2);
+					nextChild = Arrays.copyOf(nextChild, depth * 2);
+				}
+				Node child = children.get(i);
+				path[depth] = child;
+				nextChild[depth] = 0;
+				if (!visitor.enter(child, depth)) {
+					nextChild[depth] = child.getChildren().size();
+				}
+			} else {
+				visitor.exit(node, depth);
+				path[depth] = null;
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * During a walk, get an ancestor of the current node (or the current node itself).
+	 *
+	 * @param level the depth of the ancestor
+	 * @return the ancestor
+	 */
+	public Node getNode(int level) {
+		return path[level];
+	}
+
+	/**
+	 * During a walk, get the parent of the node at given depth.
+	 *
+	 * @param depth the depth of the current node
+	 * @return the parent, or null if depth is 0
+	 */
+	public Node getParent(int depth) {
+		return depth > 0 ? path[depth - 1] : null;
+	}
+
+	/**
+	 * During a walk, get the index of the node at given depth in its parent's list of children.
+	 *
+	 * @param depth the depth of the node (must be greater than 0)
+	 * @return the child index
+	 */
+	public int getChildIndex(int depth) {
+		return nextChild[depth - 1] - 1;
+	}
+
+	/**
+	 * During a walk, check whether the node at given level of the
+	 * path has children which haven't been visited yet.
+	 *
+	 * @param level the level
+	 * @return true if there are more children to visit
+	 */
+	public boolean hasMoreChildren(int level) {
+		return nextChild[level] < path[level].getChildren().size();
+	}
+}
@@ -0,0 +1,180 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Base class for writing a textual representation of a parse tree
+ * to an Appendable (e.g., a BufferedWriter or StringBuilder.)
+ * The tree is walked with a {@link TreeWalker}, and numbers and
+ * lexemes are appended directly, so writing a tree does not allocate
+ * any objects per node.
+ */
+public abstract class TreeWriter {
+	protected final Appendable out;
+	protected final TokenSequence seq;
+	private final TreeWalker walker;
+	private final ITreeVisitor visitor;
+	private final char[] digits;
+
+	protected TreeWriter(Appendable out, TokenSequence seq) {
+		this.out = out;
+		this.seq = seq;
+		this.walker = new TreeWalker();
+		this.visitor = new ITreeVisitor() {
+			@Override
+			public boolean enter(Node node, int depth) {
+				try {
+					startNode(node, depth);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return true;
+			}
+
+			@Override
+			public void exit(Node node, int depth) {
+				try {
+					endNode(node, depth);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+		this.digits = new char[11];
+	}
+
+	/**
+	 * Create a TreeWriter for a format.
+	 *
+	 * @param format "ascii", "json", or "sexp"
+	 * @param out    the Appendable to write to
+	 * @param seq    the token sequence the tree was parsed from
+	 * @return the TreeWriter
+	 */
+	public static TreeWriter create(String format, Appendable out, TokenSequence seq) {
+		switch (format) {
+		case "ascii": return new AsciiTreeWriter(out, seq);
+		case "json": return new JsonTreeWriter(out, seq);
+		case "sexp": return new SExpressionTreeWriter(out, seq);
+		default: throw new IllegalArgumentException("Unknown tree format: " + format);
+		}
+	}
+
+	/**
+	 * Write a tree.
+	 *
+	 * @param root the root of the tree
+	 * @throws IOException
+	 */
+	public void write(Node root) throws IOException {
+		try {
+			walker.walk(root, visitor);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		finish();
+	}
+
+	/**
+	 * Called when the walk reaches a node, before its children.
+	 */
+	protected abstract void startNode(Node node, int depth) throws IOException;
+
+	/**
+	 * Called when the walk leaves a node, after its children.
+	 */
+	protected abstract void endNode(Node node, int depth) throws IOException;
+
+	/**
+	 * Called after the entire tree has been written.
+	 */
+	protected void finish() throws IOException {
+		out.append('\n');
+	}
+
+	/**
+	 * @param level a level of the path from the root to the current node
+	 * @return true if the node at that level has children which haven't been visited yet
+	 */
+	protected boolean hasMoreChildren(int level) {
+		return walker.hasMoreChildren(level);
+	}
+
+	/**
+	 * @param depth the depth of the current node (must be greater than 0)
+	 * @return true if the current node is the first child of its parent
+	 */
+	protected boolean isFirstChild(int depth) {
+		return walker.getChildIndex(depth) == 0;
+	}
+
+	/**
+	 * @return the lexeme of the node's first token, or null if the node has no position
+	 */
+	protected String getLexeme(Node node) {
+		int start = node.getStartPos();
+		return (start >= 0 && start < seq.size()) ? seq.get(start).getLexeme() : null;
+	}
+
+	protected void appendInt(int value) throws IOException {
+		if (value < 0) {
+			out.append('-');
+			value = -value;
+		}
+		int n = 0;
+		do {
+			digits[n++] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (n > 0) {
+			out.append(digits[--n]);
+		}
+	}
+
+	/**
+	 * Append a string as a double-quoted literal, escaping characters as in JSON.
+	 */
+	protected void appendQuoted(String s) throws IOException {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': out.append("\\\""); break;
+			case '\\': out.append("\\\\"); break;
+			case '\n': out.append("\\n"); break;
+			case '\r': out.append("\\r"); break;
+			case '\t': out.append("\\t"); break;
+			default:
+				if (c < 0x20) {
+					out.append("\\u00");
+					out.append(Character.forDigit(c >> 4, 16));
+					out.append(Character.forDigit(c & 0xF, 16));
+				} else {
+					out.append(c);
+				}
+				break;
+			}
+		}
+		out.append('"');
+	}
+
+	public static void main(String[] args) throws IOException, LexerException {
+		if (args.length != 2) {
+			System.err.println("Usage: TreeWriter <ascii|json|sexp> <file>");
+			System.exit(1);
+		}
+		try (Reader r = new FileReader(args[1])) {
+			TokenSequence seq = new TokenSequence(LexerUtil.readAll(new CLexer(r)));
+			Node unit = new CParser(seq).parse();
+			Writer w = new BufferedWriter(new OutputStreamWriter(System.out));
+			create(args[0], w, seq).write(unit);
+			w.flush();
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoding of variable-length integers (LEB128: 7 bits per byte,
+ * least significant group first, high bit set on all but the last byte).
+ * Signed values are zig-zag encoded so that small negative values
+ * are also short.  See {@link VarIntWriter} for encoding.
+ */
+public class VarInt {
+	public static int readUnsigned(ByteBuffer buf) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buf.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	public static int readSigned(ByteBuffer buf) {
+		int value = readUnsigned(buf);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public static long readUnsignedLong(ByteBuffer buf) {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			byte b = buf.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	public static long readSignedLong(ByteBuffer buf) {
+		long value = readUnsignedLong(buf);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public static int sizeOfUnsigned(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	public static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	public static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
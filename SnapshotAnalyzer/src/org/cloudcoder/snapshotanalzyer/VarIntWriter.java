@@ -0,0 +1,99 @@
+package org.cloudcoder.snapshotanalzyer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for writing variable-length integers
+ * (see {@link VarInt}) and raw bytes.  Can be reset and reused.
+ */
+public class VarIntWriter {
+	private byte[] buf;
+	private int size;
+
+	public VarIntWriter() {
+		this(256);
+	}
+
+	public VarIntWriter(int initialCapacity) {
+		this.buf = new byte[Math.max(initialCapacity, 16)];
+		this.size = 0;
+	}
+
+	public void writeUnsigned(int value) {
+		ensureCapacity(size + 5);
+		while ((value & ~0x7F) != 0) {
+			buf[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[size++] = (byte) value;
+	}
+
+	public void writeSigned(int value) {
+		writeUnsigned(VarInt.zigZag(value));
+	}
+
+	public void writeUnsignedLong(long value) {
+		ensureCapacity(size + 10);
+		while ((value & ~0x7FL) != 0) {
+			buf[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[size++] = (byte) value;
+	}
+
+	public void writeSignedLong(long value) {
+		writeUnsignedLong(VarInt.zigZag(value));
+	}
+
+	public void writeByte(int b) {
+		ensureCapacity(size + 1);
+		buf[size++] = (byte) b;
+	}
+
+	public void writeInt(int value) {
+		ensureCapacity(size + 4);
+		buf[size++] = (byte) (value >>> 24);
+		buf[size++] = (byte) (value >>> 16);
+		buf[size++] = (byte) (value >>> 8);
+		buf[size++] = (byte) value;
+	}
+
+	public void writeLong(long value) {
+		writeInt((int) (value >>> 32));
+		writeInt((int) value);
+	}
+
+	public void writeBytes(byte[] bytes, int off, int len) {
+		ensureCapacity(size + len);
+		System.arraycopy(bytes, off, buf, size, len);
+		size += len;
+	}
+
+	public void writeBytes(VarIntWriter other) {
+		writeBytes(other.buf, 0, other.size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void reset() {
+		size = 0;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, size);
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(buf, 0, size);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+		}
+	}
+}